@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The attractor demo with two attractors and one repeller at the default strengths. The particles live
+ * forever, so the count doesn't change during the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AttractorBenchmark {
+    private static final double              SIZE      = 1024;
+    private static final double              STRENGTH  = 500;  // default attractor and repeller strength
+    private static final double              MAX_SPEED = 4;    // default particle max speed
+    @Param({ "10000", "100000", "1000000" })
+    public               int                 count;
+    private              List<ForceSource>   attractors;
+    private              List<ForceSource>   repellers;
+    private              ParticleStore       particles;
+    private              StepKernel          kernel;
+    private              SimulationScheduler scheduler;
+
+
+    @Setup public void setup() {
+        Random rnd = new Random(42);
+        attractors = Arrays.asList(new InverseSquareForce(SIZE * 0.25, SIZE * 0.5, STRENGTH), new InverseSquareForce(SIZE * 0.75, SIZE * 0.5, STRENGTH));
+        repellers  = Arrays.asList(new InverseSquareForce(SIZE * 0.5, SIZE * 0.5, -STRENGTH));
+        particles  = new ParticleStore(count);
+        for (int i = 0 ; i < count ; i++) {
+            particles.add(rnd.nextDouble() * SIZE, rnd.nextDouble() * SIZE, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, Double.MAX_VALUE);
+        }
+        kernel     = new StepKernel();
+        kernel.prepare(0, 0, MAX_SPEED, attractors, repellers);
+        scheduler  = new SimulationScheduler(Runtime.getRuntime().availableProcessors(), StepKernel.CHUNK_SIZE);
+        scheduler.getKernel().prepare(0, 0, MAX_SPEED, attractors, repellers);
+    }
+
+    @TearDown public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Force pass only: all force sources over all particles
+     */
+    @Benchmark public ParticleStore force() {
+        ParticleStore p = particles;
+        for (ForceSource attractor : attractors) { attractor.accumulate(p.x, p.y, p.ax, p.ay, 0, p.getHighWater()); }
+        for (ForceSource repeller : repellers)   { repeller.accumulate(p.x, p.y, p.ax, p.ay, 0, p.getHighWater()); }
+        return p;
+    }
+
+    /**
+     * Forces and move fused per chunk on the calling thread
+     */
+    @Benchmark public int step() {
+        return kernel.step(particles);
+    }
+
+    /**
+     * Forces and move fused per chunk on the simulation fork/join pool
+     */
+    @Benchmark public int parallelStep() {
+        return scheduler.step(particles);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The passes of a MouseGravityParticles step over all particles, the mouse sits in the center of the 700 x 700 area
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MouseGravityParticlesBenchmark {
+    private static final double                 SIZE         = 700;
+    private static final int                    NO_OF_FIELDS = MouseGravitySimulation.NO_OF_FIELDS;
+    @Param({ "20000", "100000", "1000000" })
+    public               int                    count;
+    private              MouseGravitySimulation simulation;
+
+
+    @Setup public void setup() {
+        simulation = new MouseGravitySimulation(SIZE, SIZE, count);
+    }
+
+    @Benchmark public double checkGravity() {
+        double sum = 0;
+        for (int i = 0 ; i < count ; i++) { sum += simulation.checkGravity(i * NO_OF_FIELDS, SIZE * 0.5, SIZE * 0.5); }
+        return sum;
+    }
+
+    @Benchmark public double[] update() {
+        for (int i = 0 ; i < count ; i++) { simulation.update(i * NO_OF_FIELDS); }
+        return simulation.getParticles();
+    }
+
+    /**
+     * checkGravity() and update() per particle like the demo does it
+     */
+    @Benchmark public double step() {
+        double sum = 0;
+        for (int i = 0 ; i < count ; i++) {
+            sum += simulation.checkGravity(i * NO_OF_FIELDS, SIZE * 0.5, SIZE * 0.5);
+            simulation.update(i * NO_OF_FIELDS);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Software rendering of one attractor sized frame: count 10 x 10 pixel radial sprites, drawn source over by the
+ * TileRasterizer and additively by the AdditiveCompositor, with one thread and with all cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RasterizerBenchmark {
+    private static final int                WIDTH       = 1280;
+    private static final int                HEIGHT      = 720;
+    private static final int                SPRITE_SIZE = 10;
+    @Param({ "10000", "100000" })
+    public               int                count;
+    @Param({ "1", "0" })    // 0: all cores
+    public               int                threads;
+    private              int[]              sprite;
+    private              int[]              x;
+    private              int[]              y;
+    private              int[]              target;
+    private              TileRasterizer     rasterizer;
+    private              AdditiveCompositor compositor;
+
+
+    @Setup public void setup() {
+        Random rnd = new Random(42);
+        sprite = new int[SPRITE_SIZE * SPRITE_SIZE];
+        for (int py = 0 ; py < SPRITE_SIZE ; py++) {
+            for (int px = 0 ; px < SPRITE_SIZE ; px++) {
+                double t     = Math.hypot(px + 0.5 - SPRITE_SIZE * 0.5, py + 0.5 - SPRITE_SIZE * 0.5) / (SPRITE_SIZE * 0.5);
+                int    alpha = t >= 1 ? 0 : (int) (255 * (1 - t));
+                sprite[py * SPRITE_SIZE + px] = alpha << 24 | alpha << 16 | (alpha / 2) << 8;
+            }
+        }
+        x = new int[count];
+        y = new int[count];
+        for (int i = 0 ; i < count ; i++) {
+            x[i] = rnd.nextInt(WIDTH);
+            y[i] = rnd.nextInt(HEIGHT);
+        }
+        target     = new int[WIDTH * HEIGHT];
+        int n      = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        rasterizer = new TileRasterizer(n);
+        compositor = new AdditiveCompositor(n);
+    }
+
+    @TearDown public void tearDown() {
+        rasterizer.shutdown();
+        compositor.shutdown();
+    }
+
+    /**
+     * Binning and source over rasterization of all tiles
+     */
+    @Benchmark public int[] tiles() {
+        rasterizer.clear();
+        for (int i = 0 ; i < count ; i++) { rasterizer.add(sprite, SPRITE_SIZE, 0, 0, SPRITE_SIZE, SPRITE_SIZE, x[i], y[i], 1.0); }
+        rasterizer.rasterize(target, WIDTH, HEIGHT, 0xFF000000);
+        return target;
+    }
+
+    /**
+     * Additive accumulation and tone mapping of all strips
+     */
+    @Benchmark public int[] additive() {
+        compositor.clear();
+        for (int i = 0 ; i < count ; i++) { compositor.add(sprite, SPRITE_SIZE, 0, 0, SPRITE_SIZE, SPRITE_SIZE, x[i], y[i], 1.0); }
+        compositor.composite(target, WIDTH, HEIGHT);
+        return target;
+    }
+}
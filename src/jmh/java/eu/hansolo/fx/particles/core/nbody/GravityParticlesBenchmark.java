@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * One frame of GravityParticles: 3 bodies are the solar system preset, every other count a galaxy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GravityParticlesBenchmark {
+    @Param({ "3", "1000", "10000", "100000" })
+    public  int         count;
+    @Param({ "euler", "verlet", "rk4" })
+    public  String      integrator;
+    private NBodyPreset preset;
+    private NBodySystem system;
+
+
+    @Setup public void setup() {
+        preset = 3 == count ? NBodyPreset.solarSystem() : NBodyPreset.galaxy(count, 280);
+        system = new NBodySystem(preset.getBodies(), preset.getG(), preset.getTheta(), preset.getSoftening(), Integrator.forName(integrator));
+    }
+
+    @Benchmark public double update() {
+        double dt = preset.getTimeStep() / preset.getSubSteps();
+        for (int i = 0 ; i < preset.getSubSteps() ; i++) { system.step(dt); }
+        return system.getBodies().x[0];
+    }
+
+    /**
+     * Tree build plus the accelerations of all bodies, the part every integrator pays per force evaluation
+     */
+    @Benchmark public double computeAccelerations() {
+        system.computeAccelerations();
+        return system.getBodies().aX[0];
+    }
+}
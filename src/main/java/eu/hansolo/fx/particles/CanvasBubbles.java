@@ -16,6 +16,9 @@
 
 package eu.hansolo.fx.particles;
 
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.RandomService;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.collections.ObservableList;
@@ -34,23 +37,28 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 
 /**
  * Created by hansolo on 06.07.16.
  */
 public class CanvasBubbles extends Application {
-    private static final Random RND             = new Random();
-    private static final double WIDTH           = 700;
-    private static final double HEIGHT          = 700;
-    private static final int    NO_OF_PARTICLES = 5000;
-    private static       int    noOfNodes       = 0;
+    private static final SplittableRandom RND             = RandomService.stream("CanvasBubbles");
+    private static final double           WIDTH           = 700;
+    private static final double           HEIGHT          = 700;
+    private static final int              NO_OF_PARTICLES = 5000;
+    private static final boolean          CPU             = "cpu".equals(System.getProperty("particles.renderer"));
+    private static       int              noOfNodes       = 0;
     private Image               image;
     private Canvas              canvas;
     private GraphicsContext     ctx;
+    private SpriteBatch         batch;
+    private PixelLayer          layer;
     private ImageParticle[]     particles;
     private AnimationTimer      timer;
+    private FrameProfiler       profiler;
+    private ProfilerOverlay     overlay;
 
 
     // ******************** Constructor ***************************************
@@ -58,10 +66,16 @@ public class CanvasBubbles extends Application {
         canvas    = new Canvas(WIDTH, HEIGHT);
         ctx       = canvas.getGraphicsContext2D();
         image     = new Image(getClass().getResourceAsStream("bubble.png"));
+        batch     = new SpriteBatch(image, NO_OF_PARTICLES);
+        layer     = CPU ? new PixelLayer((int) WIDTH, (int) HEIGHT) : null;
         particles = new ImageParticle[NO_OF_PARTICLES];
+        profiler  = new FrameProfiler();
+        overlay   = new ProfilerOverlay(profiler);
         timer     = new AnimationTimer() {
             @Override public void handle(final long NOW) {
+                profiler.beginFrame(NOW);
                 draw();
+                profiler.endFrame(NOW);
             }
         };
         for (int i = 0 ; i < NO_OF_PARTICLES ; i++) {
@@ -72,10 +86,11 @@ public class CanvasBubbles extends Application {
 
     // ******************** Methods *******************************************
     @Override public void start(Stage stage) throws Exception {
-        StackPane pane = new StackPane(canvas);
+        StackPane pane = new StackPane(CPU ? layer.getView() : canvas, overlay);
         pane.setBackground(new Background(new BackgroundFill(Color.BLACK, CornerRadii.EMPTY, Insets.EMPTY)));
 
         Scene scene = new Scene(pane);
+        overlay.install(scene);
 
         stage.setTitle("Canvas Bubbles");
         stage.setScene(scene);
@@ -84,9 +99,14 @@ public class CanvasBubbles extends Application {
         // Calculate number of nodes
         calcNoOfNodes(pane);
         System.out.println(noOfNodes + " Nodes in SceneGraph");
+        overlay.setInfo(noOfNodes + " nodes in scene graph, " + NO_OF_PARTICLES + " particles");
         System.out.println(NO_OF_PARTICLES + " Particles");
+        System.out.println((CPU ? "cpu compositing" : "sprite batch") + " renderer");
 
         timer.start();
+
+        // stop simulation and rendering while minimized, hidden or idle
+        new LifecycleController(stage).manage(timer);
     }
 
     @Override public void stop() {
@@ -94,17 +114,12 @@ public class CanvasBubbles extends Application {
     }
 
     private void draw() {
-        ctx.clearRect(0, 0, WIDTH, HEIGHT);
+        long start = System.nanoTime();
+        batch.clear();
         for (int i = 0 ; i < NO_OF_PARTICLES ; i++) {
             ImageParticle p = particles[i];
 
-            ctx.save();
-            ctx.translate(p.x, p.y);
-            ctx.scale(p.size, p.size);
-            ctx.translate(p.image.getWidth() * (-0.5), p.image.getHeight() * (-0.5));
-            ctx.setGlobalAlpha(p.opacity);
-            ctx.drawImage(p.image, 0, 0);
-            ctx.restore();
+            batch.add(p.x, p.y, p.size, p.opacity);
 
             p.x += p.vX;
             p.y += p.vY;
@@ -115,6 +130,16 @@ public class CanvasBubbles extends Application {
                 particles[i].y = HEIGHT + image.getHeight();
             }
         }
+
+        start = profiler.record(Phase.INTEGRATE, start);
+        if (CPU) {
+            batch.composite(layer, 0);
+            layer.upload();
+        } else {
+            ctx.clearRect(0, 0, WIDTH, HEIGHT);
+            batch.draw(ctx);
+        }
+        profiler.record(Phase.RENDER, start);
     }
 
 
@@ -136,7 +161,6 @@ public class CanvasBubbles extends Application {
 
     // ******************** InnerClasses **************************************
     private class ImageParticle {
-        private final Random RND = new Random();
         private double       x;
         private double       y;
         private double       vX;
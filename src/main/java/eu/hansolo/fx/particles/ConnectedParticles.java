@@ -16,6 +16,11 @@
 
 package eu.hansolo.fx.particles;
 
+import eu.hansolo.fx.particles.core.ConnectedSimulation;
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.TripleBuffer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Scene;
@@ -25,99 +30,111 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.util.Random;
+import java.util.Arrays;
 
 
 /**
  * Created by hansolo on 04.07.16.
  */
 public class ConnectedParticles extends Application {
-    private static final Random          RND            = new Random();
-    private static final double          WIDTH          = 500;
-    private static final double          HEIGHT         = 500;
-    private static final int             PARTICLE_COUNT = 100;
-    private static final double          MIN_DISTANCE   = 70;
-    private              Canvas          canvas;
-    private              GraphicsContext ctx;
-    private              Particle[]      particles;
-    private              AnimationTimer  timer;
+    private static final double                   WIDTH          = Integer.getInteger("particles.width", 500);
+    private static final double                   HEIGHT         = Integer.getInteger("particles.height", 500);
+    private static final int                      PARTICLE_COUNT = Integer.getInteger("particles.count", 100);
+    private static final double                   RADIUS         = ConnectedSimulation.RADIUS;
+    private static final double                   SIZE           = 2 * RADIUS;
+    private static final Color[]                  STROKES        = new Color[64];
+    private              Canvas                   canvas;
+    private              GraphicsContext          ctx;
+    private              ConnectedSimulation      simulation;
+    private              FixedStepLoop            loop;
+    private              TripleBuffer<Frame>      frames;
+    private              AnimationTimer           timer;
+    private              FrameProfiler            profiler;
+
+
+    static {
+        for (int i = 0 ; i < STROKES.length ; i++) { STROKES[i] = Color.rgb(255, 255, 255, (i + 1) / (double) STROKES.length); }
+    }
 
 
     // ******************** Constructor ***************************************
     public ConnectedParticles() {
-        canvas    = new Canvas(WIDTH, HEIGHT);
-        ctx       = canvas.getGraphicsContext2D();
-        particles = new Particle[PARTICLE_COUNT];
-        timer     = new AnimationTimer() {
+        canvas     = new Canvas(WIDTH, HEIGHT);
+        ctx        = canvas.getGraphicsContext2D();
+        simulation = new ConnectedSimulation(WIDTH, HEIGHT, PARTICLE_COUNT);
+        loop       = new FixedStepLoop("ConnectedParticles", this::update);
+        frames     = new TripleBuffer<>(() -> new Frame(PARTICLE_COUNT));
+        profiler   = new FrameProfiler();
+        timer      = new AnimationTimer() {
             @Override public void handle(final long NOW) {
+                long start = profiler.beginFrame(NOW);
                 draw();
+                profiler.record(Phase.RENDER, start);
+                profiler.endFrame(NOW);
             }
         };
-        for (int i = 0 ; i < PARTICLE_COUNT; i++) {
-            particles[i] = new Particle();
-        }
     }
 
 
     // ******************** Methods *******************************************
     private void draw() {
-        ctx.clearRect(0, 0, WIDTH, HEIGHT);
-        update();
-        for (int i = 0 ; i < PARTICLE_COUNT; i++) { particles[i].draw(); }
-    }
-
-    private void update() {
-        for (int i = 0 ; i < PARTICLE_COUNT; i++) {
-            Particle p = particles[i];
-            p.x += p.vX;
-            p.y += p.vY;
-
-            if(p.x + p.radius > WIDTH) {
-                p.x = p.radius;
-            } else if(p.x - p.radius < 0) {
-                p.x = WIDTH - p.radius;
-            }
+        frames.update();
+        Frame  frame = frames.getFront();
+        double back  = 1.0 - loop.getAlpha(frame.time);
 
-            if(p.y + p.radius > HEIGHT) {
-                p.y = p.radius;
-            } else if(p.y - p.radius < 0) {
-                p.y = HEIGHT - p.radius;
-            }
-
-            for(int j = i + 1; j < PARTICLE_COUNT; j++) {
-                distance(p, particles[j]);
-            }
+        ctx.clearRect(0, 0, WIDTH, HEIGHT);
+        for (int l = 0 ; l < frame.lineCount; l++) {
+            int i = frame.lines[2 * l];
+            int j = frame.lines[2 * l + 1];
+            ctx.setStroke(STROKES[(int) (frame.lineOpacity[l] * (STROKES.length - 1))]);
+            ctx.strokeLine(frame.x[i] - back * frame.vX[i], frame.y[i] - back * frame.vY[i],
+                           frame.x[j] - back * frame.vX[j], frame.y[j] - back * frame.vY[j]);
+        }
+        ctx.setFill(Color.WHITE);
+        for (int i = 0 ; i < frame.count; i++) {
+            ctx.fillOval(frame.x[i] - back * frame.vX[i] - RADIUS, frame.y[i] - back * frame.vY[i] - RADIUS, SIZE, SIZE);
         }
     }
 
-    private void distance(final Particle P1, final Particle P2) {
-        double dx       = P1.x - P2.x;
-        double dy       = P1.y - P2.y;
-        double distance = Math.sqrt(dx * dx + dy * dy);
-        if (MIN_DISTANCE > distance) {
-            ctx.setStroke(Color.rgb(255, 255, 255, (1.0 - distance / MIN_DISTANCE)));
-            ctx.strokeLine(P1.x, P1.y, P2.x, P2.y);
-
-            double ax = dx / 2000;
-            double ay = dy / 2000;
-            P1.vX -= ax;
-            P1.vY -= ay;
-            P2.vX += ax;
-            P2.vY += ay;
-        }
+    // Runs on the simulation thread
+    private void update() {
+        long start = System.nanoTime();
+        simulation.update();
+        profiler.record(Phase.INTEGRATE, start);
+
+        Frame frame = frames.getBack();
+        System.arraycopy(simulation.getX(), 0, frame.x, 0, PARTICLE_COUNT);
+        System.arraycopy(simulation.getY(), 0, frame.y, 0, PARTICLE_COUNT);
+        System.arraycopy(simulation.getVX(), 0, frame.vX, 0, PARTICLE_COUNT);
+        System.arraycopy(simulation.getVY(), 0, frame.vY, 0, PARTICLE_COUNT);
+        frame.setLines(simulation.getLines(), simulation.getLineOpacity(), simulation.getLineCount());
+        frame.count = PARTICLE_COUNT;
+        frame.time  = loop.getStepTime();
+        frames.publish();
     }
 
     @Override public void start(Stage stage) throws Exception {
         StackPane pane = new StackPane();
-        pane.getChildren().add(canvas);
+        ProfilerOverlay overlay = new ProfilerOverlay(profiler);
+        pane.getChildren().addAll(canvas, overlay);
 
         Scene scene = new Scene(pane, Color.BLACK);
+        overlay.install(scene);
 
         stage.setScene(scene);
         stage.setTitle("Demo JavaFX Canvas Particles");
         stage.show();
 
+        loop.start();
         timer.start();
+
+        // stop simulation and rendering while minimized, hidden or idle
+        new LifecycleController(stage).manage(loop).manage(timer);
+    }
+
+    @Override public void stop() {
+        timer.stop();
+        loop.stop();
     }
 
     public static void main(String[] args) {
@@ -126,32 +143,37 @@ public class ConnectedParticles extends Application {
 
 
     // ******************** InnerClasses **************************************
-    private class Particle {
-        public double x;
-        public double y;
-        public double vX;
-        public double vY;
-        public double radius;
-        public double size;
+    // Snapshot of one simulation step, the lines are index pairs into the particle arrays
+    private static class Frame {
+        public final double[] x;
+        public final double[] y;
+        public final double[] vX;
+        public final double[] vY;
+        public       int      count;
+        public       int[]    lines;
+        public       double[] lineOpacity;
+        public       int      lineCount;
+        public       long     time;
 
 
         // ******************** Constructor ***********************************
-        public Particle() {
-            x      = RND.nextDouble() * WIDTH;
-            y      = RND.nextDouble() * HEIGHT;
-            vX     = -1 + RND.nextDouble() * 2;
-            vY     = -1 + RND.nextDouble() * 2;
-            radius = 4;
-            size   = 2 * radius;
+        public Frame(final int CAPACITY) {
+            x           = new double[CAPACITY];
+            y           = new double[CAPACITY];
+            vX          = new double[CAPACITY];
+            vY          = new double[CAPACITY];
+            lines       = new int[2 * CAPACITY];
+            lineOpacity = new double[CAPACITY];
         }
 
-        public void draw() {
-            ctx.setFill(Color.WHITE);
-            ctx.fillOval(x - radius, y - radius, size, size);
-
-            //ctx.beginPath();
-            //ctx.arc(x, y, radius, radius, 0, 360);
-            //ctx.fill();
+        public void setLines(final int[] LINES, final double[] LINE_OPACITY, final int LINE_COUNT) {
+            if (lineOpacity.length < LINE_COUNT) {
+                lines       = Arrays.copyOf(lines, 2 * LINE_OPACITY.length);
+                lineOpacity = Arrays.copyOf(lineOpacity, LINE_OPACITY.length);
+            }
+            System.arraycopy(LINES, 0, lines, 0, 2 * LINE_COUNT);
+            System.arraycopy(LINE_OPACITY, 0, lineOpacity, 0, LINE_COUNT);
+            lineCount = LINE_COUNT;
         }
     }
 }
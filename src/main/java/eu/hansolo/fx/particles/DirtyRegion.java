@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.particles;
+
+import javafx.scene.canvas.GraphicsContext;
+
+
+/**
+ * Part of a canvas that has to be redrawn for an effect that only covers some of it. Per frame call begin(),
+ * add() the bounds of everything that will be drawn and clear(). clear() only erases the bounds of this and
+ * of the last frame, so the cost of an overlay depends on the area its particles cover and not on the size
+ * of the canvas. getX(), getY(), getWidth() and getHeight() are the pixels of this frame, e.g. the size of
+ * the region to composite.
+ *
+ * Renderers that composite the region on the CPU write it to getLayer() as a block of getWidth() x getHeight()
+ * pixels and show it with drawLayer().
+ */
+public class DirtyRegion {
+    private static final int        MARGIN = 2; // pre-scaled sprites are up to a pixel larger, plus antialiasing
+    private              double     minX;
+    private              double     minY;
+    private              double     maxX;
+    private              double     maxY;
+    private              int        x;
+    private              int        y;
+    private              int        width;
+    private              int        height;
+    private              int        lastX;
+    private              int        lastY;
+    private              int        lastWidth;
+    private              int        lastHeight;
+    private              boolean    full;
+    private              PixelLayer layer;
+
+
+    // ******************** Constructors **************************************
+    public DirtyRegion() {
+        full = true;
+        begin();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Start a new frame, the region of the last one will be cleared too
+     */
+    public void begin() {
+        lastX      = x;
+        lastY      = y;
+        lastWidth  = width;
+        lastHeight = height;
+        minX       = Double.POSITIVE_INFINITY;
+        minY       = Double.POSITIVE_INFINITY;
+        maxX       = Double.NEGATIVE_INFINITY;
+        maxY       = Double.NEGATIVE_INFINITY;
+    }
+
+    public void add(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        if (MIN_X < minX) { minX = MIN_X; }
+        if (MIN_Y < minY) { minY = MIN_Y; }
+        if (MAX_X > maxX) { maxX = MAX_X; }
+        if (MAX_Y > maxY) { maxY = MAX_Y; }
+    }
+
+    /**
+     * Clear the whole canvas with the next clear(), e.g. after it was resized
+     */
+    public void invalidate() { full = true; }
+
+    /**
+     * Snap the bounds of this frame to whole pixels inside of the canvas and clear them together with the
+     * ones of the last frame
+     */
+    public void clear(final GraphicsContext CTX, final double CANVAS_WIDTH, final double CANVAS_HEIGHT) {
+        int canvasWidth  = (int) Math.ceil(CANVAS_WIDTH);
+        int canvasHeight = (int) Math.ceil(CANVAS_HEIGHT);
+        if (minX > maxX || minY > maxY) {
+            x      = 0;
+            y      = 0;
+            width  = 0;
+            height = 0;
+        } else {
+            x      = Math.max(0, (int) Math.floor(minX) - MARGIN);
+            y      = Math.max(0, (int) Math.floor(minY) - MARGIN);
+            width  = Math.max(0, Math.min(canvasWidth, (int) Math.ceil(maxX) + MARGIN) - x);
+            height = Math.max(0, Math.min(canvasHeight, (int) Math.ceil(maxY) + MARGIN) - y);
+        }
+
+        if (full) {
+            CTX.clearRect(0, 0, CANVAS_WIDTH, CANVAS_HEIGHT);
+            full = false;
+        } else if (lastWidth > 0 && lastHeight > 0 && width > 0 && height > 0) {
+            int clearX = Math.min(x, lastX);
+            int clearY = Math.min(y, lastY);
+            CTX.clearRect(clearX, clearY, Math.max(x + width, lastX + lastWidth) - clearX, Math.max(y + height, lastY + lastHeight) - clearY);
+        } else if (lastWidth > 0 && lastHeight > 0) {
+            CTX.clearRect(lastX, lastY, lastWidth, lastHeight);
+        } else if (width > 0 && height > 0) {
+            CTX.clearRect(x, y, width, height);
+        }
+    }
+
+    public boolean isEmpty() { return 0 == width || 0 == height; }
+
+    public int getX() { return x; }
+
+    public int getY() { return y; }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Layer for the region of this frame. It grows with the region, a quarter larger than needed so a region
+     * that wobbles doesn't allocate every frame, and is never sized to the canvas. The region goes to its first
+     * getWidth() * getHeight() pixels with a scanline of getWidth().
+     */
+    public PixelLayer getLayer() {
+        int w = Math.max(1, width);
+        int h = Math.max(1, height);
+        if (null == layer) {
+            layer = new PixelLayer(w + w / 4, h + h / 4);
+        } else if (layer.getWidth() < w || layer.getHeight() < h) {
+            layer = new PixelLayer(Math.max(layer.getWidth(), w + w / 4), Math.max(layer.getHeight(), h + h / 4));
+        }
+        return layer;
+    }
+
+    /**
+     * Upload the region of this frame from the layer and draw it at its place on the canvas
+     */
+    public void drawLayer(final GraphicsContext CTX) {
+        if (null == layer || isEmpty()) return;
+        layer.upload(width, height);
+        CTX.drawImage(layer.getImage(), 0, 0, width, height, x, y, width, height);
+    }
+}
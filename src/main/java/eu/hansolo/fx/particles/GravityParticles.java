@@ -16,6 +16,14 @@
 
 package eu.hansolo.fx.particles;
 
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.TripleBuffer;
+import eu.hansolo.fx.particles.core.nbody.Bodies;
+import eu.hansolo.fx.particles.core.nbody.Integrator;
+import eu.hansolo.fx.particles.core.nbody.NBodyPreset;
+import eu.hansolo.fx.particles.core.nbody.NBodySystem;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Scene;
@@ -25,121 +33,145 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.util.Random;
-
 
 /**
  * Created by hansolo on 09.10.16.
+ *
+ * -Dparticles.count=3 (default) runs the sun, earth and venus preset, every other count a galaxy of that
+ * many bodies. -Dparticles.theta sets the opening angle of the Barnes-Hut tree (0 = exact),
+ * -Dparticles.integrator one of euler, verlet (default) or rk4 and -Dparticles.subSteps the number of
+ * integration steps per frame. The energy drift of the chosen combination is shown in the top left corner.
  */
 public class GravityParticles extends Application {
-    private static final double          V_MAX             = 299792458; //m / s
-    private static final double          G                 = 6.673e-11; //m^3 / kg * s^2
-    private static final Random          RND               = new Random();
-    private static final double          WIDTH             = 700;
-    private static final double          HEIGHT            = 700;
-    private static final double          METER_PER_PIXEL_X = 623_333_333.333333; // 240px == 149.6e6 (distance sun earth)
-    private static final double          METER_PER_PIXEL_Y = 623_333_333.333333;
-    private static final double          CENTER_X          = WIDTH * 0.5;
-    private static final double          CENTER_Y          = HEIGHT * 0.5;
-    private static final int             PARTICLE_COUNT    = 3;
-    private static final Canvas          CANVAS            = new Canvas(WIDTH, HEIGHT);
-    private static final GraphicsContext CTX               = CANVAS.getGraphicsContext2D();
-    private static final double          TIME_STEP         = 3600 * 24 * 365;
-    private              Particle[]      particles;
-    private              long            lastTimerCall;
-    private              AnimationTimer  timer;
+    private static final double              WIDTH          = 700;
+    private static final double              HEIGHT         = 700;
+    private static final double              CENTER_X       = WIDTH * 0.5;
+    private static final double              CENTER_Y       = HEIGHT * 0.5;
+    private static final int                 PARTICLE_COUNT = Integer.getInteger("particles.count", 3);
+    private static final String              INTEGRATOR     = System.getProperty("particles.integrator", "verlet");
+    private static final int                 ENERGY_STEPS   = 10;  // measure the energy every n-th step, costs one force evaluation for euler and rk4
+    private static final Canvas              CANVAS         = new Canvas(WIDTH, HEIGHT);
+    private static final GraphicsContext     CTX            = CANVAS.getGraphicsContext2D();
+    private              NBodyPreset         preset;
+    private              NBodySystem         system;
+    private              Color[]             colors;
+    private              int                 subSteps;
+    private              int                 stepCounter;
+    private              double              energyDrift;
+    private              FixedStepLoop       loop;
+    private              TripleBuffer<Frame> frames;
+    private              AnimationTimer      timer;
+    private              FrameProfiler       profiler;
 
 
     // ******************** Constructor ***************************************
     public GravityParticles() {
-        particles     = new Particle[PARTICLE_COUNT];
-        lastTimerCall = System.nanoTime();
-        timer         = new AnimationTimer() {
+        preset   = 3 == PARTICLE_COUNT ? NBodyPreset.solarSystem() : NBodyPreset.galaxy(PARTICLE_COUNT, WIDTH * 0.4);
+        system   = new NBodySystem(preset.getBodies(), preset.getG(), Double.parseDouble(System.getProperty("particles.theta", Double.toString(preset.getTheta()))),
+                                   preset.getSoftening(), Integrator.forName(INTEGRATOR));
+        subSteps = Integer.getInteger("particles.subSteps", preset.getSubSteps());
+        colors   = new Color[preset.getBodies().getCount()];
+        for (int i = 0 ; i < colors.length ; i++) { colors[i] = getColor(preset.getBodies().mass[i]); }
+        system.resetEnergyReference();
+        loop     = new FixedStepLoop("GravityParticles", this::update);
+        frames   = new TripleBuffer<>(() -> new Frame(colors.length));
+        profiler = new FrameProfiler();
+        timer    = new AnimationTimer() {
             @Override public void handle(final long NOW) {
-                if (NOW > lastTimerCall + 1_000) {
-                    draw();
-                    lastTimerCall = NOW;
-                }
+                long start = profiler.beginFrame(NOW);
+                draw();
+                profiler.record(Phase.RENDER, start);
+                profiler.endFrame(NOW);
             }
         };
-
-        // Initialize with given particles
-        Particle sun   = new Particle(0, 0, 0, 0, 4, 1.989E30);
-        Particle earth = new Particle(240, 240, 10, -10, 4, 5.97E24);
-        Particle venus = new Particle(-174, -174, -11, 11, 4, 4.867E24);
-
-        particles[0] = sun;
-        particles[1] = earth;
-        particles[2] = venus;
     }
 
 
     // ******************** Methods *******************************************
     private void draw() {
+        frames.update();
+        Frame  frame    = frames.getFront();
+        double back     = 1.0 - loop.getAlpha(frame.time);
+        double radius   = preset.getRadius();
+        double diameter = 2 * radius;
+
         CTX.clearRect(0, 0, WIDTH, HEIGHT);
-        update();
-        for (int i = 0 ; i < PARTICLE_COUNT; i++) { particles[i].draw(); }
+        for (int i = 0 ; i < frame.count; i++) {
+            CTX.setFill(colors[i]);
+            CTX.fillOval(frame.x[i] - back * frame.dX[i] - radius, frame.y[i] - back * frame.dY[i] - radius, diameter, diameter);
+        }
+
         CTX.setFill(Color.WHITE);
+        CTX.fillText(String.format("%s, %d x %d force evaluations per frame", system.getIntegrator().getName(), subSteps, system.getIntegrator().getForceEvaluations()), 10, 20);
+        CTX.fillText(String.format("Energy drift: %.3e", frame.energyDrift), 10, 36);
     }
 
+    // Runs on the simulation thread
     private void update() {
-        for (int i = 0 ; i < PARTICLE_COUNT; i++) {
-            Particle p = particles[i];
-
-            for(int j = i + 1; j < PARTICLE_COUNT; j++) {
-                update(p, particles[j]);
-            }
+        Bodies bodies   = system.getBodies();
+        Frame  frame    = frames.getBack();
+        int    count    = bodies.getCount();
+        double dt       = preset.getTimeStep() / subSteps;
+        long   forces   = system.getForceNanos();
+        long   start    = System.nanoTime();
+        for (int i = 0 ; i < subSteps ; i++) { system.step(dt); }
+        forces          = system.getForceNanos() - forces;
+        profiler.recordNanos(Phase.FORCES, forces);
+        profiler.recordNanos(Phase.INTEGRATE, System.nanoTime() - start - forces);
+        if (stepCounter++ % ENERGY_STEPS == 0) { energyDrift = system.getEnergyDrift(); }
+
+        Frame  previous = frames.getPublished();
+        for (int i = 0 ; i < count ; i++) {
+            frame.x[i]  = CENTER_X + bodies.x[i] / preset.getMeterPerPixelX();
+            frame.y[i]  = CENTER_Y + bodies.y[i] / preset.getMeterPerPixelY();
+            frame.dX[i] = previous.count == count ? frame.x[i] - previous.x[i] : 0;
+            frame.dY[i] = previous.count == count ? frame.y[i] - previous.y[i] : 0;
         }
+        frame.count       = count;
+        frame.energyDrift = energyDrift;
+        frame.time        = loop.getStepTime();
+        frames.publish();
     }
 
-    private void update(final Particle P1, final Particle P2) {
-        double r  = getDistanceBetween(P1, P2);                                          // distance between P1 and P2 [m]
-        double F  = G * P1.mass * P2.mass / (r * r);                                     // force between P1 and P2    [N == m*kg*s*s]
-        double Fx = F * (P2.x - P1.x) / r;                                               // force between P1 and P2 in x-direction [N]
-        double Fy = F * (P2.y - P1.y) / r;                                               // force between P1 and P2 in y-direction [N]
-
-        P1.aX = P1.x > CENTER_X ? P1.aX + Fx / P1.mass : P1.aX - Fx / P1.mass;           // acceleration of P2 in x-direction
-        P1.aY = P1.y > CENTER_Y ? P1.aY + Fy / P1.mass : P1.aY - Fy / P1.mass;           // acceleration of P2 in y-direction
-
-        P1.vX = clamp(-V_MAX, V_MAX, P1.x > CENTER_X ? P1.vX - TIME_STEP * P1.aX : P1.vX + TIME_STEP * P1.aX); // velocity of P1 in x-direction
-        P1.vY = clamp(-V_MAX, V_MAX, P1.y > CENTER_Y ? P1.vY - TIME_STEP * P1.aY : P1.vY + TIME_STEP * P1.aY); // velocity of P1 in y-direction
-
-        P1.x  += TIME_STEP * P1.vX / METER_PER_PIXEL_X;                                  // position x of P1
-        P1.y  += TIME_STEP * P1.vY / METER_PER_PIXEL_Y;                                  // position y of P1
-
-        P2.aX = P2.x > CENTER_X ? P2.aX + Fx / P2.mass : P2.aX - Fx / P2.mass;           // acceleration of P2 in x-direction
-        P2.aY = P2.y > CENTER_Y ? P2.aY + Fy / P2.mass : P2.aY - Fy / P2.mass;           // acceleration of P2 in y-direction
-
-        P2.vX = clamp(-V_MAX, V_MAX, P2.x > CENTER_X ? P2.vX - TIME_STEP * P2.aX : P2.vX + TIME_STEP * P2.aX); // velocity of P2 in x-direction
-        P2.vY = clamp(-V_MAX, V_MAX, P2.y > CENTER_Y ? P2.vY - TIME_STEP * P2.aY : P2.vY + TIME_STEP * P2.aY); // velocity of P2 in y-direction
-
-        P2.x  += TIME_STEP * P2.vX / METER_PER_PIXEL_X;                                  // position x of P2
-        P2.y  += TIME_STEP * P2.vY / METER_PER_PIXEL_Y;                                  // position y of P2
-    }
-
-    private double getDistanceBetween(final Particle P1, final Particle P2) {
-        double dx       = (P1.x - P2.x) * METER_PER_PIXEL_X;
-        double dy       = (P1.y - P2.y) * METER_PER_PIXEL_Y;
-        double distance = Math.sqrt(dx * dx + dy * dy);
-        return distance;
-    }
-
-    private double clamp(final double MIN, final double MAX, final double VALUE) {
-        if (VALUE < MIN) return MIN;
-        if (VALUE > MAX) return MAX;
-        return VALUE;
+    private static Color getColor(final double MASS) {
+        if (MASS > 1e30) {
+            return Color.RED;
+        } else if (MASS > 1e28) {
+            return Color.ORANGE;
+        } else if (MASS > 1e26) {
+            return Color.YELLOW;
+        } else if (MASS > 1e24) {
+            return Color.LIME;
+        } else if (MASS > 1e22) {
+            return Color.CYAN;
+        } else if (MASS > 1e20) {
+            return Color.BLUE;
+        } else {
+            return Color.WHITE;
+        }
     }
 
     @Override public void start(Stage stage) throws Exception {
-        StackPane pane = new StackPane(CANVAS);
+        ProfilerOverlay overlay = new ProfilerOverlay(profiler);
+        StackPane       pane    = new StackPane(CANVAS, overlay);
 
         Scene scene = new Scene(pane, Color.BLACK);
+        overlay.install(scene);
 
         stage.setScene(scene);
         stage.setTitle("Demo JavaFX Canvas Particles");
         stage.show();
 
+        loop.start();
         timer.start();
+
+        // stop simulation and rendering while minimized, hidden or idle
+        new LifecycleController(stage).manage(loop).manage(timer);
+    }
+
+    @Override public void stop() {
+        timer.stop();
+        loop.stop();
     }
 
     public static void main(String[] args) {
@@ -148,51 +180,23 @@ public class GravityParticles extends Application {
 
 
     // ******************** InnerClasses **************************************
-    private class Particle {
-        public double x;
-        public double y;
-        public double aX;       // [m/s*s]
-        public double aY;       // [m/s*s]
-        public double vX;       // [m/s]
-        public double vY;       // [m/s]
-        public double radius;   // [m]
-        public double mass;     // [kg]
-        public double diameter;
-        public Color  color;
+    // Snapshot of one simulation step, dX/dY is the movement in pixels during that step
+    private static class Frame {
+        public final double[] x;
+        public final double[] y;
+        public final double[] dX;
+        public final double[] dY;
+        public       int      count;
+        public       double   energyDrift;
+        public       long     time;
 
 
         // ******************** Constructor ***********************************
-        public Particle() {
-            this(RND.nextDouble() * WIDTH, RND.nextDouble() * HEIGHT, 0, 0, 4, RND.nextDouble() * 1_000_000_000);
-        }
-        public Particle(final double X, final double Y, final double V_X, final double V_Y, final double RADIUS, final double MASS) {
-            x        = CENTER_X + X;
-            y        = CENTER_Y + Y;
-            vX       = V_X;
-            vY       = V_Y;
-            radius   = RADIUS;     // m
-            mass     = MASS;       // kg
-            diameter = 2 * radius; // m
-            if (mass > 1e30) {
-                color = Color.RED;
-            } else if (mass > 1e28) {
-                color = Color.ORANGE;
-            } else if (mass > 1e26) {
-                color = Color.YELLOW;
-            } else if (mass > 1e24) {
-                color = Color.LIME;
-            } else if (mass > 1e22) {
-                color = Color.CYAN;
-            } else if (mass > 1e20) {
-                color = Color.BLUE;
-            } else {
-                color = Color.WHITE;
-            }
-        }
-
-        public void draw() {
-            CTX.setFill(color);
-            CTX.fillOval(x - radius, y - radius, diameter, diameter);
+        public Frame(final int CAPACITY) {
+            x  = new double[CAPACITY];
+            y  = new double[CAPACITY];
+            dX = new double[CAPACITY];
+            dY = new double[CAPACITY];
         }
     }
 }
\ No newline at end of file
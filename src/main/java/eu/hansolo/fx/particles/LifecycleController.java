@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.particles;
+
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FixedStepLoop.CatchUp;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.event.EventHandler;
+import javafx.scene.input.InputEvent;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Suspends the simulation loops and AnimationTimers of a demo while its stage is minimized or hidden and,
+ * optionally, while nobody touched mouse, keyboard or screen for a while. On resume the loops catch up
+ * according to the CatchUp policy and the timers start again.
+ *
+ * -Dparticles.idleTimeout=&lt;seconds&gt; enables the idle timeout, -Dparticles.catchUp=skip|fast_forward sets
+ * the policy (default skip). The idle timeout is checked once a second on a thread of its own, an
+ * Animation would keep the JavaFX pulse running.
+ *
+ * All methods must be called on the FX thread.
+ */
+public class LifecycleController {
+    public enum Reason { ICONIFIED, HIDDEN, IDLE }
+
+    private static final ScheduledExecutorService IDLE_CHECKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "particle-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private        final Stage                    stage;
+    private        final List<Runnable>           suspendActions;
+    private        final List<Runnable>           resumeActions;
+    private        final EnumSet<Reason>          reasons;
+    private        final ChangeListener<Boolean>  iconifiedListener;
+    private        final ChangeListener<Boolean>  showingListener;
+    private        final EventHandler<InputEvent> inputFilter;
+    private              CatchUp                  catchUp;
+    private              long                     idleTimeoutNanos;
+    private volatile     long                     lastInput;
+    private              ScheduledFuture<?>       idleCheck;
+    private              long                     suspendedAt;
+    private              long                     suspendedNanos;
+
+
+    // ******************** Constructors **************************************
+    public LifecycleController(final Stage STAGE) {
+        stage             = STAGE;
+        suspendActions    = new ArrayList<>();
+        resumeActions     = new ArrayList<>();
+        reasons           = EnumSet.noneOf(Reason.class);
+        lastInput         = System.nanoTime();
+        iconifiedListener = (o, ov, nv) -> update(Reason.ICONIFIED, nv);
+        showingListener   = (o, ov, nv) -> update(Reason.HIDDEN, !nv);
+        inputFilter       = e -> {
+            lastInput = System.nanoTime();
+            if (reasons.contains(Reason.IDLE)) { update(Reason.IDLE, false); }
+        };
+        catchUp           = CatchUp.valueOf(System.getProperty("particles.catchUp", "skip").toUpperCase(Locale.US));
+
+        registerListeners();
+        setIdleTimeout(Long.getLong("particles.idleTimeout", 0), TimeUnit.SECONDS);
+    }
+
+    private void registerListeners() {
+        stage.iconifiedProperty().addListener(iconifiedListener);
+        stage.showingProperty().addListener(showingListener);
+        stage.addEventFilter(InputEvent.ANY, inputFilter);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Loop that is paused on suspend and resumed with the CatchUp policy, only if it was running
+     */
+    public LifecycleController manage(final FixedStepLoop LOOP) {
+        boolean[] wasRunning = new boolean[1];
+        return manage(() -> {
+            wasRunning[0] = LOOP.isRunning();
+            LOOP.pause();
+        }, () -> {
+            if (wasRunning[0]) { LOOP.resume(catchUp); }
+        });
+    }
+
+    /**
+     * Timer that is stopped on suspend and started on resume
+     */
+    public LifecycleController manage(final AnimationTimer TIMER) {
+        return manage(TIMER::stop, TIMER::start);
+    }
+
+    /**
+     * Actions that are run on suspend and resume, resume actions run in the order they were added
+     */
+    public LifecycleController manage(final Runnable SUSPEND, final Runnable RESUME) {
+        suspendActions.add(SUSPEND);
+        resumeActions.add(RESUME);
+        if (isSuspended()) { SUSPEND.run(); }
+        return this;
+    }
+
+    public boolean isSuspended() { return !reasons.isEmpty(); }
+
+    /**
+     * Reasons why the demo is suspended right now, empty while it runs
+     */
+    public EnumSet<Reason> getReasons() { return EnumSet.copyOf(reasons); }
+
+    /**
+     * Total time the demo was suspended
+     */
+    public long getSuspendedNanos() { return isSuspended() ? suspendedNanos + System.nanoTime() - suspendedAt : suspendedNanos; }
+
+    public CatchUp getCatchUp() { return catchUp; }
+    public void setCatchUp(final CatchUp CATCH_UP) { catchUp = null == CATCH_UP ? CatchUp.SKIP : CATCH_UP; }
+
+    /**
+     * Suspend after TIMEOUT without any input in the stage, 0 disables it
+     */
+    public void setIdleTimeout(final long TIMEOUT, final TimeUnit UNIT) {
+        idleTimeoutNanos = Math.max(0, UNIT.toNanos(TIMEOUT));
+        if (null != idleCheck) { idleCheck.cancel(false); }
+        idleCheck = null;
+        lastInput = System.nanoTime();
+        if (reasons.contains(Reason.IDLE)) { update(Reason.IDLE, false); }
+        if (0 == idleTimeoutNanos) return;
+        final long TIMEOUT_NANOS = idleTimeoutNanos;
+        idleCheck = IDLE_CHECKER.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastInput > TIMEOUT_NANOS) {
+                Platform.runLater(() -> {
+                    if (TIMEOUT_NANOS == idleTimeoutNanos && System.nanoTime() - lastInput > TIMEOUT_NANOS) { update(Reason.IDLE, true); }
+                });
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remove the listeners and stop the idle check, the demo keeps its current state
+     */
+    public void dispose() {
+        stage.iconifiedProperty().removeListener(iconifiedListener);
+        stage.showingProperty().removeListener(showingListener);
+        stage.removeEventFilter(InputEvent.ANY, inputFilter);
+        if (null != idleCheck) { idleCheck.cancel(false); }
+        idleCheck = null;
+    }
+
+    private void update(final Reason REASON, final boolean ACTIVE) {
+        boolean wasSuspended = isSuspended();
+        if (ACTIVE) { reasons.add(REASON); } else { reasons.remove(REASON); }
+        if (!wasSuspended && isSuspended()) {
+            suspendedAt = System.nanoTime();
+            suspendActions.forEach(Runnable::run);
+        } else if (wasSuspended && !isSuspended()) {
+            suspendedNanos += System.nanoTime() - suspendedAt;
+            resumeActions.forEach(Runnable::run);
+        }
+    }
+}
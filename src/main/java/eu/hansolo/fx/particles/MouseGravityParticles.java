@@ -16,19 +16,22 @@
 
 package eu.hansolo.fx.particles;
 
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.MouseGravitySimulation;
+import eu.hansolo.fx.particles.core.TripleBuffer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.Node;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.util.Random;
-
 
 /**
  * Created with IntelliJ IDEA.
@@ -36,176 +39,191 @@ import java.util.Random;
  * Date: 19.09.12
  * Time: 09:21
  * To change this template use File | Settings | File Templates.
+ *
+ * -Dparticles.count sets the number of particles (default 20000). By default the particles are written
+ * into a PixelLayer, which is one image upload per frame and draws 1M particles, -Dparticles.renderer=canvas
+ * uses one fillRect() per particle instead.
  */
 public class MouseGravityParticles extends Application {
-    private static final Random   RND               = new Random();
-    private static final boolean  REFLECT_ON_BORDER = true;
-    private static final double   WIDTH             = 700;
-    private static final double   HEIGHT            = 700;
-    private static final int      NO_OF_PARTICLES   = 20000;
-    private static final double   MIN_DISTANCE      = 100;   // 100
-    private static final double   MAX_DISTANCE      = 3000; // 3000
-    private static final int      X                 = 0;
-    private static final int      Y                 = 1;
-    private static final int      VX                = 2;
-    private static final int      VY                = 3;
-    private static final int      AX                = 4;
-    private static final int      AY                = 5;
-    private static final int      MOUSE_GRAVITY     = 9;    // 18
-    private static final int      SPEED             = 6;
-    private static final int      NO_OF_FIELDS      = 7;    // x, y, vx, vy, ax, ay, speed
-    private static final int      ARRAY_LENGTH      = NO_OF_PARTICLES * NO_OF_FIELDS;
-    private static final double   SPEED_LIMIT       = 20.5;    // 2
-    private static final double   DAMPING           = 0.025;  // 0.5
-    private final Canvas          CANVAS;
-    private final GraphicsContext CTX;
-    private double[]              mousePos;
-    private int                   currentIndex;
-    private double[]              particles;
-    private AnimationTimer        timer;
+    private static final double                 WIDTH           = 700;
+    private static final double                 HEIGHT          = 700;
+    private static final int                    NO_OF_PARTICLES = Integer.getInteger("particles.count", 20000);
+    private static final boolean                PIXEL_RENDERER  = !"canvas".equals(System.getProperty("particles.renderer"));
+    private static final int                    X               = MouseGravitySimulation.X;
+    private static final int                    Y               = MouseGravitySimulation.Y;
+    private static final int                    NO_OF_FIELDS    = MouseGravitySimulation.NO_OF_FIELDS;
+    private static final double                 WHITE           = MouseGravitySimulation.WHITE;
+    private static final int                    WHITE_SHADE     = 255; // shades below are saturation * 254
+    private static final int                    BACKGROUND      = 0xFF000000;
+    private static final Color[]                COLORS          = new Color[256];
+    private static final int[]                  ARGB            = new int[256];
+    private        final Canvas                 CANVAS;
+    private        final GraphicsContext        CTX;
+    private        final PixelLayer             PIXELS;
+    private volatile     double                 mouseX;
+    private volatile     double                 mouseY;
+    private              MouseGravitySimulation simulation;
+    private              FixedStepLoop          loop;
+    private              TripleBuffer<Frame>    frames;
+    private              AnimationTimer         timer;
+    private              FrameProfiler          profiler;
+
+
+    static {
+        for (int i = 0 ; i < WHITE_SHADE ; i++) { COLORS[i] = Color.hsb(1, 1 - i / (double) (WHITE_SHADE - 1), 1); }
+        COLORS[WHITE_SHADE] = Color.WHITE;
+        for (int i = 0 ; i < COLORS.length ; i++) { ARGB[i] = PixelLayer.toArgb(COLORS[i]); }
+    }
 
 
     // ******************** Constructor ***************************************
     public MouseGravityParticles() {
         CANVAS        = new Canvas(WIDTH, HEIGHT);
         CTX           = CANVAS.getGraphicsContext2D();
-        mousePos      = new double[2];
+        PIXELS        = new PixelLayer((int) WIDTH, (int) HEIGHT);
+        simulation    = new MouseGravitySimulation(WIDTH, HEIGHT, NO_OF_PARTICLES);
+        loop          = new FixedStepLoop("MouseGravityParticles", this::step);
+        frames        = new TripleBuffer<>(() -> new Frame(NO_OF_PARTICLES));
+        profiler      = new FrameProfiler();
         timer         = new AnimationTimer() {
-            @Override public void handle(final long NOW) { draw(); }
+            @Override public void handle(final long NOW) {
+                long start = profiler.beginFrame(NOW);
+                draw();
+                profiler.record(Phase.RENDER, start);
+                profiler.endFrame(NOW);
+            }
         };
 
-        // Initialize particles
-        particles             = new double[ARRAY_LENGTH];
-        double initialSpeed   = 1;
-        int nextParticleIndex = 0; // next position to insert new particle
-        for (int i = 0 ; i < NO_OF_PARTICLES; i++) {
-            nextParticleIndex = (nextParticleIndex + NO_OF_FIELDS) % ARRAY_LENGTH;
-            particles[nextParticleIndex + X]     = RND.nextDouble() * WIDTH;
-            particles[nextParticleIndex + Y]     = RND.nextDouble() * HEIGHT;
-            particles[nextParticleIndex + VX]    = RND.nextDouble() * initialSpeed - initialSpeed * 0.5;
-            particles[nextParticleIndex + VY]    = RND.nextDouble() * initialSpeed - initialSpeed * 0.5;
-            particles[nextParticleIndex + AX]    = 0;
-            particles[nextParticleIndex + AY]    = 0;
-            particles[nextParticleIndex + SPEED] = 0;
-        }
-
-        CANVAS.addEventFilter(MouseEvent.MOUSE_MOVED, EVENT -> {
-            mousePos[0] = EVENT.getX();
-            mousePos[1] = EVENT.getY();
+        getView().addEventFilter(MouseEvent.MOUSE_MOVED, EVENT -> {
+            mouseX = EVENT.getX();
+            mouseY = EVENT.getY();
         });
     }
 
 
     // ******************** Methods *******************************************
+    private Node getView() { return PIXEL_RENDERER ? PIXELS.getView() : CANVAS; }
+
     private void draw() {
-        CTX.clearRect(0, 0, WIDTH, HEIGHT);
+        frames.update();
+        Frame frame = frames.getFront();
+        float back  = (float) (1.0 - loop.getAlpha(frame.time));
 
-        for (int i = 0 ; i < NO_OF_PARTICLES; i++) {
-            currentIndex = i * NO_OF_FIELDS;
-            checkGravity(currentIndex);
-            update((i * NO_OF_FIELDS));
-            drawParticle(currentIndex, CTX);
+        if (PIXEL_RENDERER) {
+            drawPixels(frame, back);
+        } else {
+            drawCanvas(frame, back);
         }
     }
 
-    private void checkGravity(final int INDEX) {
-        double dX = particles[INDEX + X] - mousePos[0];
-        double dY = particles[INDEX + Y] - mousePos[1];
-
-        //double distance = Math.sqrt(dX * dX + dY * dY);
-        double distance = 1 / invSqrt(dX * dX + dY * dY);
-
-        // scale the vector to the inverse square distance
-        dX /= (Math.pow(distance, 2.5) / MOUSE_GRAVITY); // bigger values increase gravity of mouseposition
-        dY /= (Math.pow(distance, 2.5) / MOUSE_GRAVITY);
+    private void drawCanvas(final Frame FRAME, final float BACK) {
+        CTX.clearRect(0, 0, WIDTH, HEIGHT);
 
-        if(distance > MIN_DISTANCE){
-            particles[INDEX + AX] -= dX * 2;
-            particles[INDEX + AY] -= dY * 2;
-            CTX.setFill(Color.WHITE);
-        } else {
-            double saturation = 1 / MAX_DISTANCE * distance * 32;
-            saturation = saturation < 0 ? 0 : (saturation > 1 ? 1 : saturation);
-            CTX.setFill(Color.hsb(1, 1 - saturation, 1));
+        int shade = -1;
+        for (int i = 0 ; i < FRAME.count; i++) {
+            // the colors are cached, only change the fill when the shade changes
+            if ((FRAME.shade[i] & 0xFF) != shade) {
+                shade = FRAME.shade[i] & 0xFF;
+                CTX.setFill(COLORS[shade]);
+            }
+            drawParticle(FRAME.x[i] - BACK * FRAME.dX[i], FRAME.y[i] - BACK * FRAME.dY[i], CTX);
         }
     }
 
-    private void update(int pos) {
-        // Calculate speed
-        particles[pos + SPEED] = 1 / invSqrt(particles[pos + VX] * particles[pos + VX] + particles[pos + VY] * particles[pos + VY]);
-        //particles[pos + SPEED] = Math.sqrt(particles[pos + VX] * particles[pos + VX] + particles[pos + VY] * particles[pos + VY]);
-        if(particles[pos + SPEED] > SPEED_LIMIT) {
-            particles[pos + VX] /= (particles[pos + SPEED] / SPEED_LIMIT);
-            particles[pos + VY] /= (particles[pos + SPEED] / SPEED_LIMIT);
+    private void drawPixels(final Frame FRAME, final float BACK) {
+        final int   PIXEL_WIDTH  = PIXELS.getWidth();
+        final int   PIXEL_HEIGHT = PIXELS.getHeight();
+        final int[] PIXEL        = PIXELS.getPixels();
+
+        PIXELS.clear(BACKGROUND);
+        for (int i = 0 ; i < FRAME.count; i++) {
+            int x = (int) (FRAME.x[i] - BACK * FRAME.dX[i]);
+            int y = (int) (FRAME.y[i] - BACK * FRAME.dY[i]);
+            if (x < 0 || y < 0 || x >= PIXEL_WIDTH || y >= PIXEL_HEIGHT) continue;
+            PIXEL[y * PIXEL_WIDTH + x] = ARGB[FRAME.shade[i] & 0xFF];
         }
+        PIXELS.upload();
+    }
 
-        // Calculate velocity and new pos
-        particles[pos + X] += (particles[pos + VX] += particles[pos + AX]);
-        particles[pos + Y] += (particles[pos + VY] += particles[pos + AY]);
-
-        // Reset acceleration
-        particles[pos + AX] = 0;
-        particles[pos + AY] = 0;
-
-        if (REFLECT_ON_BORDER) {
-            // Reflection on borders
-            if(particles[pos + X] < 0){
-                particles[pos + X]  = 0;
-                particles[pos + VX] *= -DAMPING;
-            } else if(particles[pos + X] > WIDTH){
-                particles[pos + X]  = WIDTH;
-                particles[pos + VX] *= -DAMPING;
-            }
+    // Runs on the simulation thread
+    private void step() {
+        Frame    frame     = frames.getBack();
+        double   mouseX    = this.mouseX;
+        double   mouseY    = this.mouseY;
+        double[] particles = simulation.getParticles();
+        long     start     = System.nanoTime();
 
-            if(particles[pos + Y] < 0){
-                particles[pos + Y]  = 0;
-                particles[pos + VY] *= -DAMPING;
-            } else if(particles[pos + Y] > HEIGHT){
-                particles[pos + Y] = HEIGHT;
-                particles[pos + VY] *= -DAMPING;
-            }
-        } else {
-            // No reflection on borders
-            if (particles[pos + X] + 1 > WIDTH) {
-                particles[pos + X] = 1;
-            } else if (particles[pos + X] - 1 < 0) {
-                particles[pos + X] = WIDTH - 1;
-            }
-            if (particles[pos + Y] + 1 > HEIGHT) {
-                particles[pos + Y] = 1;
-            } else if (particles[pos + Y] - 1 < 0) {
-                particles[pos + Y] = HEIGHT - 1;
-            }
+        for (int i = 0 ; i < NO_OF_PARTICLES; i++) {
+            int    currentIndex = i * NO_OF_FIELDS;
+            double x            = particles[currentIndex + X];
+            double y            = particles[currentIndex + Y];
+            double saturation   = simulation.checkGravity(currentIndex, mouseX, mouseY);
+            simulation.update(currentIndex);
+            frame.shade[i]      = (byte) (saturation == WHITE ? WHITE_SHADE : (int) (saturation * (WHITE_SHADE - 1)));
+            frame.x[i]          = (float) particles[currentIndex + X];
+            frame.y[i]          = (float) particles[currentIndex + Y];
+            frame.dX[i]         = (float) (particles[currentIndex + X] - x);
+            frame.dY[i]         = (float) (particles[currentIndex + Y] - y);
         }
+        profiler.record(Phase.INTEGRATE, start);
+        frame.count = NO_OF_PARTICLES;
+        frame.time  = loop.getStepTime();
+        frames.publish();
     }
 
-    private void drawParticle(int pos, final GraphicsContext CTX) {
+    private void drawParticle(final double X, final double Y, final GraphicsContext CTX) {
         //CTX.setFill(Color.WHITE);
-        CTX.fillRect(particles[pos], particles[pos + 1], 1, 1);
-    }
-
-    private double invSqrt(double x) {
-        double xhalf = 0.5d * x;
-        long i = Double.doubleToLongBits(x);
-        i = 0x5fe6ec85e7de30daL - (i>>1);
-        x = Double.longBitsToDouble(i);
-        x = x * (1.5d - xhalf * x * x);
-        return x;
+        CTX.fillRect(X, Y, 1, 1);
     }
 
     @Override public void start(Stage stage) throws Exception {
         StackPane pane = new StackPane();
-        pane.getChildren().add(CANVAS);
+        ProfilerOverlay overlay = new ProfilerOverlay(profiler);
+        pane.getChildren().addAll(getView(), overlay);
 
         Scene scene = new Scene(pane, Color.BLACK);
+        overlay.install(scene);
 
         stage.setScene(scene);
         stage.show();
 
+        loop.start();
         timer.start();
+
+        // stop simulation and rendering while minimized, hidden or idle
+        new LifecycleController(stage).manage(loop).manage(timer);
+    }
+
+    @Override public void stop() {
+        timer.stop();
+        loop.stop();
     }
 
     public static void main(String[] args) {
         launch(args);
     }
+
+
+    // ******************** InnerClasses **************************************
+    // Snapshot of one simulation step, dX/dY is the movement during that step. Floats and a palette index
+    // per particle keep the three frames small enough for 1M particles.
+    private static class Frame {
+        public final float[] x;
+        public final float[] y;
+        public final float[] dX;
+        public final float[] dY;
+        public final byte[]  shade;
+        public       int     count;
+        public       long    time;
+
+
+        // ******************** Constructor ***********************************
+        public Frame(final int CAPACITY) {
+            x     = new float[CAPACITY];
+            y     = new float[CAPACITY];
+            dX    = new float[CAPACITY];
+            dY    = new float[CAPACITY];
+            shade = new byte[CAPACITY];
+        }
+    }
 }
\ No newline at end of file
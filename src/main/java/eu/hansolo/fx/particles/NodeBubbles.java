@@ -16,19 +16,23 @@
 
 package eu.hansolo.fx.particles;
 
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.RandomService;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
-import javafx.scene.CacheHint;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.Parent;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.CycleMethod;
 import javafx.scene.paint.LinearGradient;
@@ -43,43 +47,65 @@ import javafx.stage.Stage;
 import javafx.scene.layout.StackPane;
 import javafx.scene.Scene;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 
 /**
  * User: hansolo
  * Date: 06.07.16
  * Time: 09:25
+ *
+ * All bubbles share one image that is snapshotted once from the bubble shapes. Every bubble is a plain
+ * ImageView that is moved with translateX/Y, which doesn't trigger a layout pass. A bubble that left the
+ * top starts again at the bottom with the same view, so no nodes are created after start.
  */
 public class NodeBubbles extends Application {
-    private static final Random          RND             = new Random();
-    private static final double          WIDTH           = 700;
-    private static final double          HEIGHT          = 700;
-    private static final int             NO_OF_PARTICLES = 5000;
-    private static       int             noOfNodes       = 0;
-    private              Particle[]      particles;
-    private              AnimationTimer  timer;
+    private static final SplittableRandom RND             = RandomService.stream("NodeBubbles");
+    private static final double           WIDTH           = 700;
+    private static final double           HEIGHT          = 700;
+    private static final int              NO_OF_PARTICLES = 5000;
+    private static final double           IMAGE_SIZE      = 64;
+    private static       int              noOfNodes       = 0;
+    private              Image            image;
+    private              Pane             pane;
+    private              Particle[]       particles;
+    private              AnimationTimer   timer;
+    private              FrameProfiler    profiler;
+    private              ProfilerOverlay  overlay;
 
 
     @Override public void init() {
         particles = new Particle[NO_OF_PARTICLES];
+        profiler  = new FrameProfiler();
         timer     = new AnimationTimer() {
             @Override public void handle(final long NOW) {
+                long start = profiler.beginFrame(NOW);
                 draw();
+                profiler.record(Phase.RENDER, start);
+                profiler.endFrame(NOW);
             }
         };
-        for (int i = 0 ; i < NO_OF_PARTICLES ; i++) { particles[i] = new Particle(); }
     }
 
 
     // ******************** Methods *******************************************
     @Override public void start(Stage stage) {
-        Pane pane = new Pane(particles);
+        // Snapshots have to be taken on the FX thread
+        image = createBubbleImage(IMAGE_SIZE);
+        pane  = new Pane();
+        for (int i = 0 ; i < NO_OF_PARTICLES ; i++) {
+            particles[i] = new Particle();
+            particles[i].reset();
+        }
+        // Controls have to be created on the FX thread as well
+        overlay = new ProfilerOverlay(profiler);
+        pane.getChildren().add(overlay);
         pane.setPrefSize(WIDTH, HEIGHT);
         pane.setBackground(new Background(new BackgroundFill(Color.BLACK, CornerRadii.EMPTY, Insets.EMPTY)));
 
         Scene scene = new Scene(pane);
         scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
+        overlay.install(scene);
 
         stage.setTitle("NodeBubbles");
         stage.setScene(scene);
@@ -88,9 +114,13 @@ public class NodeBubbles extends Application {
         // Calculate number of nodes
         calcNoOfNodes(pane);
         System.out.println(noOfNodes + " Nodes in SceneGraph");
+        overlay.setInfo(noOfNodes + " nodes in scene graph, " + NO_OF_PARTICLES + " particles");
         System.out.println(NO_OF_PARTICLES + " Particles");
 
         timer.start();
+
+        // stop simulation and rendering while minimized, hidden or idle
+        new LifecycleController(stage).manage(timer);
     }
 
     @Override public void stop() {
@@ -101,17 +131,31 @@ public class NodeBubbles extends Application {
         for (int i = 0 ; i < NO_OF_PARTICLES ; i++) {
             Particle p = particles[i];
 
-            p.setLayoutX(p.getLayoutX() + p.vX);
-            p.setLayoutY(p.getLayoutY() + p.vY);
+            p.x += p.vX;
+            p.y += p.vY;
+            p.view.setTranslateX(p.x);
+            p.view.setTranslateY(p.y);
 
             // Reset particle
-            if(p.getLayoutY() < -p.getPrefHeight()) {
-                particles[i].setLayoutX(RND.nextDouble() * WIDTH);
-                particles[i].setLayoutY(HEIGHT + particles[i].getPrefHeight());
-            }
+            if(p.y < -p.size) { p.reset(); }
         }
     }
 
+    // Called once per Particle from reset(), the view is added to the pane and kept for the whole run
+    private ImageView createView() {
+        ImageView view = new ImageView(image);
+        view.setSmooth(true);
+        view.setManaged(false);
+        pane.getChildren().add(view);
+        return view;
+    }
+
+    private Image createBubbleImage(final double SIZE) {
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return new Group(createBubble(SIZE)).snapshot(parameters, null);
+    }
+
     private Node[] createBubble(final double SIZE) {
         final double CENTER = SIZE * 0.5;
         final Node[] NODES  = new Node[3];
@@ -171,34 +215,34 @@ public class NodeBubbles extends Application {
 
 
     // ******************** InnerClasses **************************************
-    private class Particle extends Region {
-        public double vX;
-        public double vY;
+    private class Particle {
+        public double    x;
+        public double    y;
+        public double    vX;
+        public double    vY;
+        public double    size;
+        public ImageView view;
 
-        public Particle() {
-            super();
 
-            // Size
-            double size = 50 * (RND.nextDouble() * 0.6) + 0.1;
-            setPrefSize(size, size);
+        // Start as a new bubble at the bottom, the view is created once and kept
+        public void reset() {
+            if (null == view) { view = createView(); }
 
-            //getStyleClass().add("bubble");
-            getChildren().addAll(createBubble(size));
+            // Size
+            size = 50 * (RND.nextDouble() * 0.6) + 0.1;
+            view.setFitWidth(size);
+            view.setFitHeight(size);
 
             // Position
-            setLayoutX(RND.nextDouble() * WIDTH);
-            setLayoutY(HEIGHT + size);
+            x = RND.nextDouble() * WIDTH;
+            y = HEIGHT + size;
 
             // Velocity
             vX = (RND.nextDouble() * 0.5) - 0.25;
             vY = (-(RND.nextDouble() * 2) - 0.5) * (size / 50);
 
             // Opacity
-            setOpacity((RND.nextDouble() * 0.6) + 0.4);
-
-            // Enable Caching
-            setCache(true);
-            setCacheHint(CacheHint.SPEED);
+            view.setOpacity((RND.nextDouble() * 0.6) + 0.4);
         }
     }
 }
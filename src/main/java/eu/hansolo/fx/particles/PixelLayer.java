@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Software render target: particles are written as ARGB ints into getPixels() and the whole buffer is
+ * uploaded to a WritableImage with one setPixels() call per frame, instead of one canvas command per
+ * particle. The pixels are premultiplied, which is the same as straight ARGB for opaque colors.
+ */
+public class PixelLayer {
+    private static final PixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbPreInstance();
+    private        final int                    width;
+    private        final int                    height;
+    private        final int[]                  pixels;
+    private        final WritableImage          image;
+    private        final ImageView              view;
+
+
+    // ******************** Constructors **************************************
+    public PixelLayer(final int WIDTH, final int HEIGHT) {
+        width  = WIDTH;
+        height = HEIGHT;
+        pixels = new int[WIDTH * HEIGHT];
+        image  = new WritableImage(WIDTH, HEIGHT);
+        view   = new ImageView(image);
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Row major ARGB pixels, pixel (x, y) is at y * getWidth() + x
+     */
+    public int[] getPixels() { return pixels; }
+
+    /**
+     * Image that holds the uploaded pixels, e.g. to draw the whole layer with one GraphicsContext.drawImage()
+     */
+    public WritableImage getImage() { return image; }
+
+    /**
+     * Node that shows the uploaded pixels
+     */
+    public ImageView getView() { return view; }
+
+    public void clear(final int ARGB) { Arrays.fill(pixels, ARGB); }
+
+    /**
+     * Sets the pixel if (X, Y) is inside of the layer
+     */
+    public void setPixel(final int X, final int Y, final int ARGB) {
+        if (X < 0 || Y < 0 || X >= width || Y >= height) return;
+        pixels[Y * width + X] = ARGB;
+    }
+
+    /**
+     * Copy the pixels to the image, must be called on the FX thread
+     */
+    public void upload() { image.getPixelWriter().setPixels(0, 0, width, height, FORMAT, pixels, 0, width); }
+
+    /**
+     * Copy the first WIDTH * HEIGHT pixels as a block with a scanline of WIDTH to the top left corner of the
+     * image, e.g. a region that was composited on its own. Draw it with the source rectangle 0, 0, WIDTH, HEIGHT.
+     */
+    public void upload(final int WIDTH, final int HEIGHT) { image.getPixelWriter().setPixels(0, 0, WIDTH, HEIGHT, FORMAT, pixels, 0, WIDTH); }
+
+    public static int toArgb(final Color COLOR) {
+        return (int) Math.round(COLOR.getOpacity() * 255) << 24 |
+               (int) Math.round(COLOR.getRed() * 255)     << 16 |
+               (int) Math.round(COLOR.getGreen() * 255)   << 8  |
+               (int) Math.round(COLOR.getBlue() * 255);
+    }
+}
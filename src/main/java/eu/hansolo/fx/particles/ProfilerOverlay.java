@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles;
+
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.RandomService;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundFill;
+import javafx.scene.layout.CornerRadii;
+import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Shows the summaries of one or more FrameProfilers on top of a demo. F3 shows and hides the overlay,
+ * F4 resets the profilers. -Dparticles.profiler=true shows it right from the start. The profilers only
+ * sample allocations and GC while the overlay is shown.
+ * The text is refreshed 4 times a second and only while the overlay is visible. The last line shows the
+ * random seed, start with -Dparticles.seed=&lt;seed&gt; to replay the same run.
+ */
+public class ProfilerOverlay extends Label {
+    private static final long                REFRESH_NANOS = 250_000_000;
+    private        final List<String>        names;
+    private        final List<FrameProfiler> profilers;
+    private              String              info;
+    private              long                lastRefresh;
+    private        final AnimationTimer      timer;
+
+
+    // ******************** Constructors **************************************
+    public ProfilerOverlay(final FrameProfiler PROFILER) {
+        this();
+        add(null, PROFILER);
+    }
+    public ProfilerOverlay() {
+        names     = new ArrayList<>();
+        profilers = new ArrayList<>();
+        info      = "";
+        timer     = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                if (NOW - lastRefresh < REFRESH_NANOS) return;
+                lastRefresh = NOW;
+                refresh();
+            }
+        };
+
+        setFont(Font.font("Monospaced", 11));
+        setTextFill(Color.WHITE);
+        setPadding(new Insets(5));
+        setBackground(new Background(new BackgroundFill(Color.rgb(0, 0, 0, 0.7), CornerRadii.EMPTY, Insets.EMPTY)));
+        setMouseTransparent(true);
+        StackPane.setAlignment(this, Pos.TOP_LEFT);
+
+        visibleProperty().addListener((o, ov, nv) -> {
+            profilers.forEach(profiler -> profiler.setEnabled(nv));
+            if (nv) {
+                refresh();
+                timer.start();
+            } else {
+                timer.stop();
+            }
+        });
+        setVisible(Boolean.getBoolean("particles.profiler"));
+        if (isVisible()) { timer.start(); }
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Add a profiler, the NAME is shown above its summary if not null
+     */
+    public void add(final String NAME, final FrameProfiler PROFILER) {
+        names.add(NAME);
+        profilers.add(PROFILER);
+        PROFILER.setEnabled(isVisible());
+    }
+
+    /**
+     * Extra line below the summaries, e.g. the number of nodes
+     */
+    public void setInfo(final String INFO) { info = null == INFO ? "" : INFO; }
+
+    /**
+     * Listen for F3 (show/hide) and F4 (reset) in the scene
+     */
+    public void install(final Scene SCENE) {
+        SCENE.addEventFilter(KeyEvent.KEY_PRESSED, e -> {
+            if (KeyCode.F3 == e.getCode()) {
+                setVisible(!isVisible());
+            } else if (KeyCode.F4 == e.getCode()) {
+                profilers.forEach(FrameProfiler::reset);
+                refresh();
+            }
+        });
+    }
+
+    private void refresh() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0 ; i < profilers.size() ; i++) {
+            if (i > 0) { text.append("\n\n"); }
+            if (null != names.get(i)) { text.append(names.get(i)).append('\n'); }
+            text.append(profilers.get(i).getSummary());
+        }
+        if (!info.isEmpty()) { text.append('\n').append(info); }
+        text.append("\nseed ").append(RandomService.getSeed());
+        setText(text.toString());
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles;
+
+import eu.hansolo.fx.particles.core.TileRasterizer;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+import java.util.Arrays;
+
+
+/**
+ * Collects the sprites of one frame that all use the same image and draws them in one go.
+ *
+ * draw() needs one drawImage(image, x, y, w, h) per sprite instead of save, translate, scale, translate,
+ * setGlobalAlpha, drawImage and restore. The sprites are sorted into ALPHA_BUCKETS by their opacity with
+ * a counting sort, so setGlobalAlpha() is only called once per used bucket. A bucket is drawn with the
+ * alpha in its middle, which is at most MIN_ALPHA off, sprites below MIN_ALPHA are not drawn at all.
+ *
+ * composite() doesn't touch the GraphicsContext at all, it blends pre-scaled copies of the image into the
+ * ARGB pixels of a PixelLayer (source over, premultiplied) with a TileRasterizer. After the upload the whole
+ * frame is a single image.
+ */
+public class SpriteBatch {
+    public  static final int            ALPHA_BUCKETS = 32;
+    public  static final double         MIN_ALPHA     = 0.5 / ALPHA_BUCKETS;
+    private static final int            SCALE_STEPS   = 16;  // pre-scaled images per scale 1.0
+    private        final Image          image;
+    private        final double         imageWidth;
+    private        final double         imageHeight;
+    private              double[]       x;
+    private              double[]       y;
+    private              double[]       scale;
+    private              double[]       alpha;
+    private              int[]          order;
+    private              int            count;
+    private        final int[]          bucketStart;
+    private              double         minX;          // bounds of all sprites
+    private              double         minY;
+    private              double         maxX;
+    private              double         maxY;
+    // CPU compositing
+    private              int[]          source;        // premultiplied pixels of the image
+    private              int[][]        scaled;        // index is the scale in steps of 1 / SCALE_STEPS
+    private              int[]          scaledWidth;
+    private              int[]          scaledHeight;
+    private              TileRasterizer rasterizer;
+    private              boolean        ownRasterizer;
+
+
+    // ******************** Constructors **************************************
+    public SpriteBatch(final Image IMAGE, final int CAPACITY) {
+        image       = IMAGE;
+        imageWidth  = IMAGE.getWidth();
+        imageHeight = IMAGE.getHeight();
+        x           = new double[CAPACITY];
+        y           = new double[CAPACITY];
+        scale       = new double[CAPACITY];
+        alpha       = new double[CAPACITY];
+        order       = new int[CAPACITY];
+        bucketStart = new int[ALPHA_BUCKETS + 1];
+        scaled      = new int[0][];
+        clear();
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getCount() { return count; }
+
+    public void clear() {
+        count = 0;
+        minX  = Double.POSITIVE_INFINITY;
+        minY  = Double.POSITIVE_INFINITY;
+        maxX  = Double.NEGATIVE_INFINITY;
+        maxY  = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Bounds of all sprites added since clear(), min > max if there are none
+     */
+    public double getMinX() { return minX; }
+    public double getMinY() { return minY; }
+    public double getMaxX() { return maxX; }
+    public double getMaxY() { return maxY; }
+
+    /**
+     * Add a sprite that is centered at X, Y
+     */
+    public void add(final double X, final double Y, final double SCALE, final double ALPHA) {
+        if (count == x.length) {
+            int capacity = Math.max(16, 2 * count);
+            x     = Arrays.copyOf(x, capacity);
+            y     = Arrays.copyOf(y, capacity);
+            scale = Arrays.copyOf(scale, capacity);
+            alpha = Arrays.copyOf(alpha, capacity);
+            order = new int[capacity];
+        }
+        x[count]     = X;
+        y[count]     = Y;
+        scale[count] = SCALE;
+        alpha[count] = ALPHA;
+        count++;
+
+        double halfWidth  = imageWidth * SCALE * 0.5;
+        double halfHeight = imageHeight * SCALE * 0.5;
+        if (X - halfWidth < minX)  { minX = X - halfWidth; }
+        if (X + halfWidth > maxX)  { maxX = X + halfWidth; }
+        if (Y - halfHeight < minY) { minY = Y - halfHeight; }
+        if (Y + halfHeight > maxY) { maxY = Y + halfHeight; }
+    }
+
+    /**
+     * Draw all sprites with one drawImage() per sprite and one setGlobalAlpha() per used alpha bucket
+     *
+     * @return number of GraphicsContext commands
+     */
+    public int draw(final GraphicsContext CTX) {
+        sortByAlpha();
+        int commands = 2;
+        CTX.save();
+        for (int bucket = 0 ; bucket < ALPHA_BUCKETS ; bucket++) {
+            int from = bucketStart[bucket];
+            int to   = bucketStart[bucket + 1];
+            if (from == to) continue;
+            CTX.setGlobalAlpha((bucket + 0.5) / ALPHA_BUCKETS);
+            commands++;
+            for (int k = from ; k < to ; k++) {
+                int i = order[k];
+                if (alpha[i] < MIN_ALPHA) continue;
+                double w = imageWidth * scale[i];
+                double h = imageHeight * scale[i];
+                CTX.drawImage(image, x[i] - w * 0.5, y[i] - h * 0.5, w, h);
+                commands++;
+            }
+        }
+        CTX.restore();
+        return commands;
+    }
+
+    /**
+     * Fill the layer with BACKGROUND and blend all sprites in the order they were added on top of it,
+     * tile by tile on all cores
+     */
+    public void composite(final PixelLayer LAYER, final int BACKGROUND) {
+        composite(LAYER, 0, 0, LAYER.getWidth(), LAYER.getHeight(), BACKGROUND);
+    }
+    /**
+     * Composite only the region X, Y, WIDTH, HEIGHT. The region is written to the first WIDTH * HEIGHT pixels
+     * of the layer with a scanline of WIDTH, upload it with PixelLayer.upload(WIDTH, HEIGHT).
+     */
+    public void composite(final PixelLayer LAYER, final int X, final int Y, final int WIDTH, final int HEIGHT, final int BACKGROUND) {
+        if (null == rasterizer) {
+            rasterizer    = new TileRasterizer(Runtime.getRuntime().availableProcessors());
+            ownRasterizer = true;
+        }
+        rasterizer.clear();
+        for (int i = 0 ; i < count ; i++) {
+            int   step = getScaleStep(scale[i]);
+            int[] src  = getScaled(step);
+            int   sw   = scaledWidth[step];
+            int   sh   = scaledHeight[step];
+            rasterizer.add(src, sw, 0, 0, sw, sh, (int) Math.round(x[i] - sw * 0.5) - X, (int) Math.round(y[i] - sh * 0.5) - Y, alpha[i]);
+        }
+        rasterizer.rasterize(LAYER.getPixels(), WIDTH, HEIGHT, BACKGROUND);
+    }
+
+    /**
+     * Use a rasterizer that is shared with other batches instead of creating one on the first composite().
+     * Batches that are used on the same thread can share one, shutdown() leaves it alone.
+     */
+    public void setRasterizer(final TileRasterizer RASTERIZER) {
+        if (ownRasterizer) { rasterizer.shutdown(); }
+        rasterizer    = RASTERIZER;
+        ownRasterizer = false;
+    }
+
+    /**
+     * Stops the threads of the rasterizer if the batch created it
+     */
+    public void shutdown() {
+        if (ownRasterizer) { rasterizer.shutdown(); }
+        rasterizer    = null;
+        ownRasterizer = false;
+    }
+
+    /**
+     * Clear the part of the canvas that changed and draw the batch there, with draw() or composited on the CPU
+     * if COMPOSITE is true
+     */
+    public void render(final GraphicsContext CTX, final DirtyRegion REGION, final double WIDTH, final double HEIGHT, final boolean COMPOSITE) {
+        REGION.begin();
+        REGION.add(minX, minY, maxX, maxY);
+        REGION.clear(CTX, WIDTH, HEIGHT);
+        if (REGION.isEmpty()) return;
+        if (COMPOSITE) {
+            composite(REGION.getLayer(), REGION.getX(), REGION.getY(), REGION.getWidth(), REGION.getHeight(), 0);
+            REGION.drawLayer(CTX);
+        } else {
+            draw(CTX);
+        }
+    }
+
+    private void sortByAlpha() {
+        Arrays.fill(bucketStart, 0);
+        for (int i = 0 ; i < count ; i++) { bucketStart[bucketOf(alpha[i]) + 1]++; }
+        for (int bucket = 0 ; bucket < ALPHA_BUCKETS ; bucket++) { bucketStart[bucket + 1] += bucketStart[bucket]; }
+        int[] next = Arrays.copyOf(bucketStart, ALPHA_BUCKETS);
+        for (int i = 0 ; i < count ; i++) { order[next[bucketOf(alpha[i])]++] = i; }
+    }
+
+    private static int bucketOf(final double ALPHA) {
+        int bucket = (int) (ALPHA * ALPHA_BUCKETS);
+        return bucket < 0 ? 0 : (bucket >= ALPHA_BUCKETS ? ALPHA_BUCKETS - 1 : bucket);
+    }
+
+    private static int getScaleStep(final double SCALE) {
+        return Math.max(1, (int) Math.round(SCALE * SCALE_STEPS));
+    }
+
+    // Pre-scaled premultiplied copy of the image, created with bilinear filtering on first use
+    private int[] getScaled(final int STEP) {
+        if (STEP >= scaled.length) {
+            scaled       = Arrays.copyOf(scaled, STEP + 1);
+            scaledWidth  = null == scaledWidth ? new int[STEP + 1] : Arrays.copyOf(scaledWidth, STEP + 1);
+            scaledHeight = null == scaledHeight ? new int[STEP + 1] : Arrays.copyOf(scaledHeight, STEP + 1);
+        }
+        if (null != scaled[STEP]) return scaled[STEP];
+
+        final int SRC_WIDTH  = (int) imageWidth;
+        final int SRC_HEIGHT = (int) imageHeight;
+        if (null == source) {
+            source = new int[SRC_WIDTH * SRC_HEIGHT];
+            image.getPixelReader().getPixels(0, 0, SRC_WIDTH, SRC_HEIGHT, PixelFormat.getIntArgbPreInstance(), source, 0, SRC_WIDTH);
+        }
+        double factor = STEP / (double) SCALE_STEPS;
+        int    w      = Math.max(1, (int) Math.round(SRC_WIDTH * factor));
+        int    h      = Math.max(1, (int) Math.round(SRC_HEIGHT * factor));
+        int[]  pixels = new int[w * h];
+        for (int py = 0 ; py < h ; py++) {
+            double sy = Math.min(SRC_HEIGHT - 1, Math.max(0, (py + 0.5) / factor - 0.5));
+            int    y0 = (int) sy;
+            int    y1 = Math.min(SRC_HEIGHT - 1, y0 + 1);
+            double fy = sy - y0;
+            for (int px = 0 ; px < w ; px++) {
+                double sx = Math.min(SRC_WIDTH - 1, Math.max(0, (px + 0.5) / factor - 0.5));
+                int    x0 = (int) sx;
+                int    x1 = Math.min(SRC_WIDTH - 1, x0 + 1);
+                double fx = sx - x0;
+                int argb = 0;
+                for (int shift = 0 ; shift <= 24 ; shift += 8) {
+                    double top    = channel(source[y0 * SRC_WIDTH + x0], shift) * (1 - fx) + channel(source[y0 * SRC_WIDTH + x1], shift) * fx;
+                    double bottom = channel(source[y1 * SRC_WIDTH + x0], shift) * (1 - fx) + channel(source[y1 * SRC_WIDTH + x1], shift) * fx;
+                    argb |= ((int) Math.round(top * (1 - fy) + bottom * fy)) << shift;
+                }
+                pixels[py * w + px] = argb;
+            }
+        }
+        scaled[STEP]       = pixels;
+        scaledWidth[STEP]  = w;
+        scaledHeight[STEP] = h;
+        return pixels;
+    }
+
+    private static int channel(final int ARGB, final int SHIFT) { return (ARGB >>> SHIFT) & 0xFF; }
+}
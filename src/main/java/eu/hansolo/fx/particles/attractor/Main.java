@@ -16,13 +16,27 @@
 
 package eu.hansolo.fx.particles.attractor;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import eu.hansolo.fx.particles.LifecycleController;
+import eu.hansolo.fx.particles.PixelLayer;
+import eu.hansolo.fx.particles.ProfilerOverlay;
+import eu.hansolo.fx.particles.core.AdditiveCompositor;
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.LineEmitter;
+import eu.hansolo.fx.particles.core.ParticleMetrics;
+import eu.hansolo.fx.particles.core.ParticleStore;
+import eu.hansolo.fx.particles.core.ParticleSystem;
+import eu.hansolo.fx.particles.core.SimulationScheduler;
+import eu.hansolo.fx.particles.core.TileRasterizer;
+import eu.hansolo.fx.particles.core.TripleBuffer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.scene.Node;
@@ -43,8 +57,6 @@ import javafx.stage.Stage;
  */
 public class Main extends Application {
 
-    private static Random random = new Random();
-
     Canvas canvas;
     GraphicsContext graphicsContext;
 
@@ -53,9 +65,57 @@ public class Main extends Application {
      */
     Pane layerPane;
 
-    List<Attractor> allAttractors = new ArrayList<>();
-    List<Repeller> allRepellers = new ArrayList<>();
-    List<Particle> allParticles = new ArrayList<>();
+    /**
+     * Attractor and repeller nodes, they are registered as forces of the particle system as well
+     */
+    List<Attractor> allAttractors = new CopyOnWriteArrayList<>();
+    List<Repeller> allRepellers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Headless engine: emitter, forces, movement and life span of all particles, in parallel on its own pool
+     */
+    ParticleSystem particleSystem = new ParticleSystem(Settings.get().getSimulationThreads(), Settings.get().getSimulationChunkSize());
+
+    /**
+     * Emitter of the particle system, follows the settings
+     */
+    LineEmitter emitter = new LineEmitter(0, 0, 0, 0);
+
+    /**
+     * Runs emitter and scheduler on its own thread, independent of the fx pulse
+     */
+    FixedStepLoop simulationLoop = new FixedStepLoop("Attractor", this::step);
+
+    /**
+     * Particles as structure-of-arrays, no scene graph nodes involved. There are three sets of them,
+     * the simulation writes one while the fx thread draws another one.
+     */
+    TripleBuffer<ParticleFrame> frames = new TripleBuffer<>(ParticleFrame::new);
+
+    /**
+     * With -Dparticles.renderer=additive the particles are added up in software on all cores and shown as one image
+     */
+    AdditiveCompositor compositor = "additive".equals(System.getProperty("particles.renderer")) ? new AdditiveCompositor(Runtime.getRuntime().availableProcessors()) : null;
+
+    /**
+     * With -Dparticles.renderer=tiles the particles are binned into tiles and the tiles are drawn on all cores
+     */
+    TileRasterizer rasterizer = "tiles".equals(System.getProperty("particles.renderer")) ? new TileRasterizer(Runtime.getRuntime().availableProcessors()) : null;
+
+    /**
+     * Target of the compositor or the rasterizer, follows the size of the canvas
+     */
+    PixelLayer layer;
+
+    /**
+     * Phase timings of simulation and rendering, shown by the overlay (F3)
+     */
+    FrameProfiler profiler = new FrameProfiler();
+
+    /**
+     * Particle count, rates and timings for JMX and the frame log, see ParticleMetrics.create()
+     */
+    ParticleMetrics metrics = ParticleMetrics.create("attractor");
 
     AnimationTimer animationLoop;
 
@@ -64,10 +124,14 @@ public class Main extends Application {
     MouseGestures mouseGestures = new MouseGestures();
 
     /**
-     * Container for pre-created images which have color and size depending on
-     * the particle's lifespan
+     * Pre-created images which have color and size depending on the particle's lifespan, all in one image
+     */
+    SpriteAtlas atlas;
+
+    /**
+     * Atlas for the latest particle size, replaces atlas once it is calculated
      */
-    Image[] images;
+    CompletableFuture<SpriteAtlas> pendingAtlas;
 
     @Override
     public void start(Stage primaryStage) {
@@ -88,12 +152,18 @@ public class Main extends Application {
 
         scene = new Scene(root, Settings.get().getSceneWidth(), Settings.get().getSceneHeight(), Settings.get().getSceneColor());
 
+        // below the text output on the canvas
+        ProfilerOverlay overlay = new ProfilerOverlay(profiler);
+        overlay.setLayoutY(44);
+        layerPane.getChildren().add(overlay);
+        overlay.install(scene);
+
         primaryStage.setScene(scene);
         primaryStage.setTitle("Particles");
         primaryStage.show();
 
         // initialize content
-        preCreateImages();
+        atlas = Utils.preCreateAtlas().join();
 
         // add content
         prepareObjects();
@@ -107,13 +177,29 @@ public class Main extends Application {
         // add context menus
         addContextMenu( canvas);
 
-        // run animation loop
+        // run simulation and animation loop
+        simulationLoop.start();
         startAnimation();
 
+        // suspend both loops while the stage is minimized, hidden or idle
+        new LifecycleController(primaryStage).manage(simulationLoop).manage(animationLoop);
+
     }
 
+    /**
+     * Calculate the atlas in the background, the current one is drawn until it's ready
+     */
     private void preCreateImages() {
-        this.images = Utils.preCreateImages();
+
+        CompletableFuture<SpriteAtlas> future = Utils.preCreateAtlas();
+        pendingAtlas = future;
+
+        future.thenAccept(created -> Platform.runLater(() -> {
+            // a later size change might have been faster
+            if (pendingAtlas == future) {
+                atlas = created;
+            }
+        }));
     }
 
     private void prepareObjects() {
@@ -130,6 +216,46 @@ public class Main extends Application {
 
     }
 
+    /**
+     * One simulation step, runs on the simulation thread
+     */
+    private void step() {
+
+        // the last step might be drawn right now, it is only read
+        ParticleFrame previous = frames.getPublished();
+        ParticleFrame frame = frames.getBack();
+
+        // take over the current settings
+        Vector2D forceGravity = Settings.get().getForceGravity();
+        particleSystem.setGravity(forceGravity.x, forceGravity.y);
+        particleSystem.setMaxSpeed(Settings.get().getParticleMaxSpeed());
+        // -1 because we want [0..255] for an amount of 256, same as in Sprite
+        emitter.set(Settings.get().getCanvasWidth() / 2, Settings.get().getEmitterLocationY(), Settings.get().getEmitterWidth(), Settings.get().getParticleLifeSpanMax() - 1);
+        particleSystem.setEmitter(emitter, Settings.get().getEmitterFrequency());
+
+        particleSystem.step(previous.particles, frame.particles);
+
+        // hand the frame over to the fx thread
+        SimulationScheduler scheduler = particleSystem.getScheduler();
+        frame.time = simulationLoop.getStepTime();
+        frame.emitNanos = particleSystem.getEmitNanos();
+        frame.stepNanos = scheduler.getStepNanos();
+        frame.compactNanos = scheduler.getCompactNanos();
+        frame.threadCount = scheduler.getThreadCount();
+        frame.chunkCount = scheduler.getChunkCount();
+        frame.chunkSize = scheduler.getChunkSize();
+        frame.efficiency = scheduler.getEfficiency();
+
+        // forces and integration run fused in one kernel
+        profiler.recordNanos(Phase.EMIT, frame.emitNanos);
+        profiler.recordNanos(Phase.INTEGRATE, frame.stepNanos);
+        profiler.recordNanos(Phase.CULL, frame.compactNanos);
+        metrics.step(frame.time, frame.particles.size(), particleSystem.getEmitted(), particleSystem.getDied(), frame.emitNanos + frame.stepNanos + frame.compactNanos);
+
+        frames.publish();
+
+    }
+
     private void startAnimation() {
 
         // start game
@@ -137,41 +263,24 @@ public class Main extends Application {
 
             FpsCounter fpsCounter = new FpsCounter();
 
+            // drawing is measured up to the text output, so the last frame's value is shown
+            long renderNanos;
+
             @Override
             public void handle(long now) {
 
                 // update fps
                 fpsCounter.update( now);
 
-                // add new particles
-                for (int i = 0; i < Settings.get().getEmitterFrequency(); i++) {
-                    addParticle();
-                }
-
-                // apply force: gravity
-                Vector2D forceGravity = Settings.get().getForceGravity();
-                allParticles.forEach(sprite -> {
-                    sprite.applyForce(forceGravity);
-                });
-
-                // apply force: attractor
-                for (Attractor attractor: allAttractors) {
-                    allParticles.stream().parallel().forEach(sprite -> {
-                        Vector2D force = attractor.getForce(sprite);
-                        sprite.applyForce(force);
-                    });
-                }
+                long renderStart = profiler.beginFrame(now);
 
-                // apply force: repeller
-                for (Repeller repeller : allRepellers) {
-                    allParticles.stream().parallel().forEach(sprite -> {
-                        Vector2D force = repeller.getForce(sprite);
-                        sprite.applyForce(force);
-                    });
-                }
+                // get the latest simulation step
+                frames.update();
+                ParticleFrame frame = frames.getFront();
+                ParticleStore particles = frame.particles;
 
-                // move sprite: apply acceleration, calculate velocity and location
-                allParticles.stream().parallel().forEach(Sprite::move);
+                // the particles are drawn between the previous and the latest step
+                double back = 1.0 - simulationLoop.getAlpha(frame.time);
 
                 // update in fx scene
                 allAttractors.forEach(Sprite::display);
@@ -183,24 +292,25 @@ public class Main extends Application {
                 graphicsContext.setFill(Color.BLACK);
                 graphicsContext.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
-                // TODO: parallel?
-                double particleSizeHalf = Settings.get().getParticleWidth() / 2;
-                allParticles.stream().forEach(particle -> {
-
-                    Image img = images[particle.getLifeSpan()];
-                    graphicsContext.drawImage(img, particle.getLocation().x - particleSizeHalf, particle.getLocation().y - particleSizeHalf);
-
-                });
-
-                // life span of particle
-                allParticles.stream().parallel().forEach(Sprite::decreaseLifeSpan);
+                if (compositor != null) {
+                    drawAdditive(particles, back);
+                } else if (rasterizer != null) {
+                    drawTiles(particles, back);
+                } else {
+                    drawImages(particles, back);
+                }
 
-                // remove all particles that aren't visible anymore
-                removeDeadParticles();
+                renderNanos = System.nanoTime() - renderStart;
+                profiler.recordNanos(Phase.RENDER, renderNanos);
 
-                // show number of particles
+                // show number of particles and where the time of the frame goes
                 graphicsContext.setFill(Color.WHITE);
-                graphicsContext.fillText("Particles: " + allParticles.size() + ", fps: " + fpsCounter.getFrameRate(), 1, 10);
+                graphicsContext.fillText("Particles: " + particles.size() + ", fps: " + fpsCounter.getFrameRate(), 1, 10);
+                graphicsContext.fillText(String.format("emit: %.2f ms, step: %.2f ms, compact: %.2f ms, render: %.2f ms", frame.emitNanos / 1e6, frame.stepNanos / 1e6, frame.compactNanos / 1e6, renderNanos / 1e6), 1, 24);
+                graphicsContext.fillText(String.format("threads: %d, chunks: %d x %d, efficiency: %.0f%%", frame.threadCount, frame.chunkCount, frame.chunkSize, frame.efficiency * 100), 1, 38);
+
+                profiler.endFrame(now);
+                metrics.frame(now, renderNanos);
 
             }
         };
@@ -209,46 +319,116 @@ public class Main extends Application {
 
     }
 
-    private void removeDeadParticles() {
+    /**
+     * One drawImage() of a sub-rectangle of the atlas per particle
+     */
+    private void drawImages(ParticleStore particles, double back) {
+
+        double particleSizeHalf = Settings.get().getParticleWidth() / 2;
+        Image atlasImage = atlas.getImage();
+        double cellSize = atlas.getCellSize();
+        double[] particleX = particles.getX();
+        double[] particleY = particles.getY();
+        double[] particleVx = particles.getVx();
+        double[] particleVy = particles.getVy();
+        double[] lifeSpan = particles.getLifeSpan();
+        int size = particles.size();
+        for (int i = 0; i < size; i++) {
+
+            int index = (int) lifeSpan[i];
+            double x = particleX[i] - back * particleVx[i];
+            double y = particleY[i] - back * particleVy[i];
+            graphicsContext.drawImage(atlasImage, atlas.getCellX(index), atlas.getCellY(index), cellSize, cellSize, x - particleSizeHalf, y - particleSizeHalf, cellSize, cellSize);
 
-        Iterator<Particle> iter = allParticles.iterator();
-        while (iter.hasNext()) {
+        }
+    }
 
-            Particle particle = iter.next();
-            if (particle.isDead()) {
+    /**
+     * Additive blending of all particles into the layer, which is then drawn as one image
+     */
+    private void drawAdditive(ParticleStore particles, double back) {
 
-                // remove from particle list
-                iter.remove();
-            }
+        if (!prepareLayer()) {
+            return;
+        }
+
+        double particleSizeHalf = Settings.get().getParticleWidth() / 2;
+        int[] atlasPixels = atlas.getPixels();
+        int cellSize = atlas.getCellSize();
+        double[] particleX = particles.getX();
+        double[] particleY = particles.getY();
+        double[] particleVx = particles.getVx();
+        double[] particleVy = particles.getVy();
+        double[] lifeSpan = particles.getLifeSpan();
+        int size = particles.size();
+
+        compositor.clear();
+        for (int i = 0; i < size; i++) {
+
+            int index = (int) lifeSpan[i];
+            int x = (int) Math.round(particleX[i] - back * particleVx[i] - particleSizeHalf);
+            int y = (int) Math.round(particleY[i] - back * particleVy[i] - particleSizeHalf);
+            compositor.add(atlasPixels, atlas.getWidth(), (int) atlas.getCellX(index), (int) atlas.getCellY(index), cellSize, cellSize, x, y, 1.0);
 
         }
+        compositor.composite(layer.getPixels(), layer.getWidth(), layer.getHeight());
+
+        layer.upload();
+        graphicsContext.drawImage(layer.getImage(), 0, 0);
 
     }
 
-    private void addParticle() {
+    /**
+     * Source over like drawImages(), but rasterized into the layer tile by tile on all cores
+     */
+    private void drawTiles(ParticleStore particles, double back) {
 
-        // random location
-        double x = Settings.get().getCanvasWidth() / 2 + random.nextDouble() * Settings.get().getEmitterWidth() - Settings.get().getEmitterWidth() / 2;
-        double y = Settings.get().getEmitterLocationY();
+        if (!prepareLayer()) {
+            return;
+        }
 
-        // dimensions
-        double width = Settings.get().getParticleWidth();
-        double height = Settings.get().getParticleHeight();
+        double particleSizeHalf = Settings.get().getParticleWidth() / 2;
+        int[] atlasPixels = atlas.getPixels();
+        int cellSize = atlas.getCellSize();
+        double[] particleX = particles.getX();
+        double[] particleY = particles.getY();
+        double[] particleVx = particles.getVx();
+        double[] particleVy = particles.getVy();
+        double[] lifeSpan = particles.getLifeSpan();
+        int size = particles.size();
 
-        // create motion data
-        Vector2D location = new Vector2D(x, y);
+        rasterizer.clear();
+        for (int i = 0; i < size; i++) {
 
-        double vx = random.nextGaussian() * 0.3;
-        double vy = random.nextGaussian() * 0.3 - 1.0;
-        Vector2D velocity = new Vector2D(vx, vy);
+            int index = (int) lifeSpan[i];
+            int x = (int) Math.round(particleX[i] - back * particleVx[i] - particleSizeHalf);
+            int y = (int) Math.round(particleY[i] - back * particleVy[i] - particleSizeHalf);
+            rasterizer.add(atlasPixels, atlas.getWidth(), (int) atlas.getCellX(index), (int) atlas.getCellY(index), cellSize, cellSize, x, y, 1.0);
 
-        Vector2D acceleration = new Vector2D(0, 0);
+        }
+        rasterizer.rasterize(layer.getPixels(), layer.getWidth(), layer.getHeight(), 0xFF000000);
 
-        // create sprite and add to layer
-        Particle sprite = new Particle(location, velocity, acceleration, width, height);
+        layer.upload();
+        graphicsContext.drawImage(layer.getImage(), 0, 0);
 
-        // register sprite
-        allParticles.add(sprite);
+    }
+
+    /**
+     * Make sure the layer has the size of the canvas
+     *
+     * @return false if the canvas is empty
+     */
+    private boolean prepareLayer() {
+
+        int width = (int) canvas.getWidth();
+        int height = (int) canvas.getHeight();
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        if (layer == null || layer.getWidth() != width || layer.getHeight() != height) {
+            layer = new PixelLayer(width, height);
+        }
+        return true;
 
     }
 
@@ -272,6 +452,7 @@ public class Main extends Application {
 
         // register sprite
         allAttractors.add(attractor);
+        particleSystem.addForce(attractor);
 
         layerPane.getChildren().add(attractor);
 
@@ -299,6 +480,7 @@ public class Main extends Application {
 
         // register sprite
         allRepellers.add(repeller);
+        particleSystem.addForce(repeller);
 
         layerPane.getChildren().add(repeller);
 
@@ -348,6 +530,20 @@ public class Main extends Application {
         });
     }
 
+    @Override
+    public void stop() {
+        animationLoop.stop();
+        simulationLoop.stop();
+        particleSystem.shutdown();
+        metrics.close();
+        if (compositor != null) {
+            compositor.shutdown();
+        }
+        if (rasterizer != null) {
+            rasterizer.shutdown();
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.attractor;
+
+import eu.hansolo.fx.particles.core.ParticleStore;
+
+/**
+ * State of one simulation step: the particles and the timings of the step that produced them.
+ * Main keeps three of them in a TripleBuffer. The simulation reads the last published frame and
+ * writes the next step into the back frame, while the FX thread draws the front frame. Nothing is
+ * copied and no frame is read and written at the same time.
+ */
+public class ParticleFrame {
+
+    final ParticleStore particles = new ParticleStore();
+
+    /**
+     * Point in time the step stands for, see FixedStepLoop.getStepTime()
+     */
+    long time;
+
+    long emitNanos;
+    long stepNanos;
+    long compactNanos;
+
+    int threadCount;
+    int chunkCount;
+    int chunkSize;
+    double efficiency;
+
+}
@@ -16,6 +16,8 @@
 
 package eu.hansolo.fx.particles.attractor;
 
+import eu.hansolo.fx.particles.core.ForceSource;
+import eu.hansolo.fx.particles.core.InverseSquareForce;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.paint.Color;
@@ -27,7 +29,7 @@ import javafx.scene.text.TextBoundsType;
 /**
  * Created by hansolo on 25.11.16.
  */
-public class Repeller extends Sprite {
+public class Repeller extends Sprite implements ForceSource {
 
     double factor = -1.0; // similar to attractor, but with -1 factor
 
@@ -74,9 +76,16 @@ public class Repeller extends Sprite {
      * Repel force
      */
     public Vector2D getForce(Particle particle) {
+        return getForce(particle.location.x, particle.location.y);
+    }
+
+    /**
+     * Repel force on a particle at the given location
+     */
+    public Vector2D getForce(double x, double y) {
 
         // calculate direction of force
-        Vector2D dir = Vector2D.subtract(location, particle.location);
+        Vector2D dir = new Vector2D(location.x - x, location.y - y);
 
         // get distance (constrain distance)
         double distance = dir.magnitude(); // distance between objects
@@ -93,4 +102,16 @@ public class Repeller extends Sprite {
 
     }
 
+    /**
+     * Same force as getForce(), but added to the acceleration arrays without creating vectors
+     */
+    @Override
+    public void accumulate(double[] x, double[] y, double[] ax, double[] ay, int from, int to) {
+
+        double strength = factor * Settings.get().getRepellerStrength();
+
+        InverseSquareForce.accumulate(location.x, location.y, strength, x, y, ax, ay, from, to);
+
+    }
+
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 
 package eu.hansolo.fx.particles.attractor;
 
+import eu.hansolo.fx.particles.core.StepKernel;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
@@ -81,6 +82,12 @@ public class Settings {
     private DoubleProperty particleLifeSpanMax = new SimpleDoubleProperty( 256);
     private DoubleProperty particleMaxSpeed = new SimpleDoubleProperty( 4);
 
+    // simulation
+    // -------------------------------
+    // worker threads and particles per chunk, can be set with -Dparticles.threads and -Dparticles.chunkSize
+    private IntegerProperty simulationThreads = new SimpleIntegerProperty( Integer.getInteger("particles.threads", Runtime.getRuntime().availableProcessors()));
+    private IntegerProperty simulationChunkSize = new SimpleIntegerProperty( Integer.getInteger("particles.chunkSize", StepKernel.CHUNK_SIZE));
+
     // instance handling
     // ----------------------------------------
     private static Settings settings = new Settings();
@@ -388,6 +395,30 @@ public class Settings {
         this.attractorStrengthProperty().set(attractorStrength);
     }
 
+    public final IntegerProperty simulationThreadsProperty() {
+        return this.simulationThreads;
+    }
+
+    public final int getSimulationThreads() {
+        return this.simulationThreadsProperty().get();
+    }
+
+    public final void setSimulationThreads(final int simulationThreads) {
+        this.simulationThreadsProperty().set(simulationThreads);
+    }
+
+    public final IntegerProperty simulationChunkSizeProperty() {
+        return this.simulationChunkSize;
+    }
+
+    public final int getSimulationChunkSize() {
+        return this.simulationChunkSizeProperty().get();
+    }
+
+    public final void setSimulationChunkSize(final int simulationChunkSize) {
+        this.simulationChunkSizeProperty().set(simulationChunkSize);
+    }
+
     // -------------------------------
     // auto-generated end
     // -------------------------------
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.attractor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.hansolo.fx.particles.PixelLayer;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Stop;
+
+
+/**
+ * One image that holds a radial gradient ball for every life span color. The image is a grid of COLUMNS
+ * cells, cell i holds the ball of life span i. Renderers draw sub-rectangles of getImage().
+ *
+ * The pixels are calculated directly, without scene graph snapshots, on a background thread. Atlases are
+ * cached by cell size, number of colors and gradient, so moving the particle size slider back and forth
+ * only calculates every size once.
+ */
+public class SpriteAtlas {
+
+    public static final int COLUMNS = 16;
+
+    /**
+     * Transparent gap between the cells, so that filtering never picks up pixels of a neighbour
+     */
+    private static final int PADDING = 1;
+
+    /**
+     * Atlases that are done or being calculated
+     */
+    private static final Map<Key, CompletableFuture<SpriteAtlas>> CACHE = new ConcurrentHashMap<>();
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SpriteAtlas");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of colors, one cell per color
+     */
+    private final int count;
+
+    /**
+     * Size of the image, all cells plus their padding
+     */
+    private final int width;
+    private final int height;
+
+    /**
+     * Width and height of a cell without the padding
+     */
+    private final int cellSize;
+
+    /**
+     * Premultiplied ARGB pixels of the image
+     */
+    private final int[] pixels;
+    private final WritableImage image;
+
+    private SpriteAtlas(Key key) {
+
+        this.count = key.count;
+        this.cellSize = key.size;
+
+        int rows = (count + COLUMNS - 1) / COLUMNS;
+        this.width = COLUMNS * (cellSize + PADDING);
+        this.height = rows * (cellSize + PADDING);
+        this.pixels = new int[width * height];
+
+        for (int i = 0; i < count; i++) {
+
+            // color of the life span, sampled in the middle of pixel i of a count pixel wide gradient
+            int argb = sample(key.stops, (i + 0.5) / count);
+
+            drawBall(argb, (int) getCellX(i), (int) getCellY(i), cellSize);
+        }
+
+        this.image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+
+    }
+
+    /**
+     * Atlas for balls with the given radius, one for each of the count colors of the gradient.
+     * The atlas is calculated on a background thread unless it is already in the cache.
+     */
+    public static CompletableFuture<SpriteAtlas> get(double radius, int count, Stop... stops) {
+
+        // same size as the snapshot of a circle: the bounds, cut to int
+        Key key = new Key(Math.max(1, (int) (2 * radius)), count, Arrays.asList(stops));
+
+        return CACHE.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> new SpriteAtlas(k), EXECUTOR));
+
+    }
+
+    /**
+     * Radial gradient from the opaque color in the center to the transparent color at the border, premultiplied
+     */
+    private void drawBall(int argb, int left, int top, int size) {
+
+        double radius = size / 2.0;
+        double opacity = (argb >>> 24) / 255.0;
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+
+                double dx = x + 0.5 - radius;
+                double dy = y + 0.5 - radius;
+                double t = Math.sqrt(dx * dx + dy * dy) / radius;
+                if (t >= 1) {
+                    continue;
+                }
+
+                // alpha falls off linear towards the border, the color channels are premultiplied with it
+                double alpha = opacity * (1 - t);
+                int a = (int) Math.round(alpha * 255);
+                int r = (int) Math.round(red * alpha);
+                int g = (int) Math.round(green * alpha);
+                int b = (int) Math.round(blue * alpha);
+                pixels[(top + y) * width + left + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+
+    }
+
+    /**
+     * Non-premultiplied color of the gradient at the given fraction
+     */
+    private static int sample(List<Stop> stops, double fraction) {
+
+        Stop previous = stops.get(0);
+        if (fraction <= previous.getOffset()) {
+            return PixelLayer.toArgb(previous.getColor());
+        }
+
+        for (Stop stop : stops) {
+            if (fraction <= stop.getOffset()) {
+                double t = (fraction - previous.getOffset()) / (stop.getOffset() - previous.getOffset());
+                return PixelLayer.toArgb(previous.getColor().interpolate(stop.getColor(), t));
+            }
+            previous = stop;
+        }
+
+        return PixelLayer.toArgb(previous.getColor());
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    /**
+     * Premultiplied ARGB pixels of the image, row major with getWidth() pixels per row
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of colors, the valid indices are 0 .. getCount() - 1
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public double getCellX(int index) {
+        return (index % COLUMNS) * (cellSize + PADDING);
+    }
+
+    public double getCellY(int index) {
+        return (index / COLUMNS) * (cellSize + PADDING);
+    }
+
+    /**
+     * Cache key: cell size, number of colors and the gradient
+     */
+    private static class Key {
+
+        final int size;
+        final int count;
+        final List<Stop> stops;
+
+        Key(int size, int count, List<Stop> stops) {
+
+            this.size = size;
+            this.count = count;
+            this.stops = stops;
+
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return size == key.size && count == key.count && stops.equals(key.stops);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, count, stops);
+        }
+    }
+
+}
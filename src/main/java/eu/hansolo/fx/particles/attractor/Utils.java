@@ -16,17 +16,14 @@
 
 package eu.hansolo.fx.particles.attractor;
 
+import java.util.concurrent.CompletableFuture;
+
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.CycleMethod;
-import javafx.scene.paint.LinearGradient;
-import javafx.scene.paint.RadialGradient;
 import javafx.scene.paint.Stop;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
 
 
 /**
@@ -89,46 +86,21 @@ public class Utils {
     }
 
     /**
-     * Pre-create images with various gradient colors and sizes.
+     * Colors of a particle over its life span: life span 0 -> life span max
+     */
+    public static final Stop[] LIFE_SPAN_STOPS = new Stop[] { new Stop(0, Color.BLACK.deriveColor(1, 1, 1, 0.0)), new Stop(0.3, Color.RED), new Stop(0.9, Color.YELLOW), new Stop(1, Color.WHITE)};
+
+    /**
+     * Pre-create an atlas with gradient images for all life span colors in the current particle size.
+     * The atlas is calculated on a background thread, or taken from the cache if the size was used before.
      *
      * @return
      */
-    public static Image[] preCreateImages() {
+    public static CompletableFuture<SpriteAtlas> preCreateAtlas() {
 
-        // get number of images
         int count = (int) Settings.get().getParticleLifeSpanMax();
-
-        // create linear gradient lookup image: lifespan 0 -> lifespan max
-        double         width          = count;
-        Stop[]         stops          = new Stop[] { new Stop(0, Color.BLACK.deriveColor(1, 1, 1, 0.0)), new Stop(0.3, Color.RED), new Stop(0.9, Color.YELLOW), new Stop(1, Color.WHITE)};
-        LinearGradient linearGradient = new LinearGradient(0, 0, width, 0, false, CycleMethod.NO_CYCLE, stops);
-
-        Rectangle rectangle = new Rectangle(width, 1);
-        rectangle.setFill( linearGradient);
-
-        Image lookupImage = createImage(rectangle);
-
-        // pre-create images
-        Image[] list = new Image[count];
-
         double radius = Settings.get().getParticleWidth();
 
-        for (int i = 0; i < count; i++) {
-
-            // get color depending on lifespan
-            Color color = lookupImage.getPixelReader().getColor( i, 0);
-
-            // create gradient image with given color
-            Circle ball = new Circle(radius);
-
-            RadialGradient gradient1 = new RadialGradient(0, 0, 0, 0, radius, false, CycleMethod.NO_CYCLE, new Stop(0, color.deriveColor(1, 1, 1, 1)), new Stop(1, color.deriveColor(1, 1, 1, 0)));
-
-            ball.setFill(gradient1);
-
-            // create image
-            list[i] = Utils.createImage(ball);
-        }
-
-        return list;
+        return SpriteAtlas.get(radius, count, LIFE_SPAN_STOPS);
     }
-}
\ No newline at end of file
+}
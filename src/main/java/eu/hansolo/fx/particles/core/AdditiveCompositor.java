@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Software compositor for glowing particles. Sprites are not blended over each other, their premultiplied
+ * colors are added up in an int accumulation buffer, so overlapping particles get brighter the way light does.
+ * Once per frame the sums are tone mapped with 1 - exp(-exposure * sum) into premultiplied ARGB pixels, which
+ * can be shown as one image. The alpha of a pixel is its brightest channel, on black this is plain additive
+ * blending, on other backgrounds the glow still covers what is behind it.
+ *
+ * The target is split into horizontal strips of STRIP_HEIGHT rows and every sprite is binned into the strips
+ * it overlaps. The strips run in parallel on an own fork/join pool, each strip clears, accumulates and tone
+ * maps only its own rows with only its own sprites, so no pixel is written by two threads.
+ *
+ * Sprites are sub-rectangles of premultiplied ARGB int arrays, e.g. a decoded image or a sprite atlas.
+ */
+public class AdditiveCompositor {
+    public  static final int          STRIP_HEIGHT = 16;
+    private static final int          ONE          = 256;  // intensity 1.0 in fixed point, an opaque white pixel adds 255 * ONE to a channel
+    private static final int          LUT_SHIFT    = 7;    // the tone map covers sums of up to 8 opaque white sprites,
+    private static final int          LUT_SIZE     = 4096; // larger sums use the last entry
+    private        final ForkJoinPool pool;
+    private        final int          threadCount;
+    private        final int[]        toneMap;
+    private              double       exposure;
+    // sprites of the current frame
+    private              int          count;
+    private              int[][]      source;
+    private              int[]        scanline;
+    private              int[]        sourceX;
+    private              int[]        sourceY;
+    private              int[]        width;
+    private              int[]        height;
+    private              int[]        x;
+    private              int[]        y;
+    private              int[]        intensity;
+    // sprites of strip s are binned[stripStart[s]] ... binned[stripStart[s + 1] - 1]
+    private              int[]        stripStart;
+    private              int[]        binned;
+    private              int[]        accumulation; // red, green and blue sum of each pixel
+    private              int[]        target;
+    private              int          targetWidth;
+    private              int          targetHeight;
+    private              long         binNanos;
+    private              long         compositeNanos;
+
+
+    // ******************** Constructors **************************************
+    public AdditiveCompositor(final int THREAD_COUNT) {
+        threadCount  = Math.max(1, THREAD_COUNT);
+        pool         = new ForkJoinPool(threadCount, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("particle-compositor-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            FrameProfiler.trackThread(thread);
+            return thread;
+        }, null, false);
+        toneMap      = new int[LUT_SIZE];
+        source       = new int[0][];
+        scanline     = new int[0];
+        sourceX      = new int[0];
+        sourceY      = new int[0];
+        width        = new int[0];
+        height       = new int[0];
+        x            = new int[0];
+        y            = new int[0];
+        intensity    = new int[0];
+        stripStart   = new int[1];
+        binned       = new int[0];
+        accumulation = new int[0];
+        setExposure(1.5);
+    }
+
+
+    // ******************** Methods *******************************************
+    public double getExposure() { return exposure; }
+    /**
+     * Brightness of the tone mapping, a single opaque sprite pixel of value c ends up as 1 - exp(-exposure * c)
+     */
+    public void setExposure(final double EXPOSURE) {
+        exposure = EXPOSURE;
+        for (int i = 0 ; i < LUT_SIZE ; i++) {
+            double sum = ((double) (i << LUT_SHIFT)) / (255.0 * ONE);
+            toneMap[i] = (int) Math.round(255 * (1 - Math.exp(-EXPOSURE * sum)));
+        }
+    }
+
+    /**
+     * Remove all sprites, has to be called at the beginning of every frame
+     */
+    public void clear() { count = 0; }
+
+    /**
+     * Number of sprites of the current frame
+     */
+    public int size() { return count; }
+
+    /**
+     * Add a sprite to the current frame
+     *
+     * @param PIXELS premultiplied ARGB pixels that contain the sprite
+     * @param SCANLINE number of pixels per row in PIXELS
+     * @param SOURCE_X left border of the sprite in PIXELS
+     * @param SOURCE_Y top border of the sprite in PIXELS
+     * @param WIDTH width of the sprite
+     * @param HEIGHT height of the sprite
+     * @param X left border in the target
+     * @param Y top border in the target
+     * @param INTENSITY factor of the sprite colors, may be larger than 1
+     */
+    public void add(final int[] PIXELS, final int SCANLINE, final int SOURCE_X, final int SOURCE_Y, final int WIDTH, final int HEIGHT, final int X, final int Y, final double INTENSITY) {
+        int fixed = (int) (INTENSITY * ONE);
+        if (fixed <= 0) return;
+        if (count == x.length) { grow(); }
+        source[count]    = PIXELS;
+        scanline[count]  = SCANLINE;
+        sourceX[count]   = SOURCE_X;
+        sourceY[count]   = SOURCE_Y;
+        width[count]     = WIDTH;
+        height[count]    = HEIGHT;
+        x[count]         = X;
+        y[count]         = Y;
+        intensity[count] = fixed;
+        count++;
+    }
+
+    /**
+     * Accumulate all sprites of the current frame and write the tone mapped result to the TARGET, which has
+     * TARGET_WIDTH * TARGET_HEIGHT premultiplied ARGB pixels. Every pixel of the target is overwritten.
+     */
+    public void composite(final int[] TARGET, final int TARGET_WIDTH, final int TARGET_HEIGHT) {
+        long start = System.nanoTime();
+        if (accumulation.length < 3 * TARGET_WIDTH * TARGET_HEIGHT) { accumulation = new int[3 * TARGET_WIDTH * TARGET_HEIGHT]; }
+        target       = TARGET;
+        targetWidth  = TARGET_WIDTH;
+        targetHeight = TARGET_HEIGHT;
+        int strips   = (TARGET_HEIGHT + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        bin(strips);
+        long binEnd  = System.nanoTime();
+        if (strips > 0) { pool.invoke(new StripTask(0, strips)); }
+        target         = null;
+        binNanos       = binEnd - start;
+        compositeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Wall time of binning the sprites of the last frame, runs on the calling thread
+     */
+    public long getBinNanos() { return binNanos; }
+
+    /**
+     * Wall time of the last composite(), including the binning
+     */
+    public long getCompositeNanos() { return compositeNanos; }
+
+    public int getThreadCount() { return threadCount; }
+
+    public void shutdown() { pool.shutdownNow(); }
+
+    private void grow() {
+        int capacity = Math.max(64, 2 * count);
+        source    = Arrays.copyOf(source, capacity);
+        scanline  = Arrays.copyOf(scanline, capacity);
+        sourceX   = Arrays.copyOf(sourceX, capacity);
+        sourceY   = Arrays.copyOf(sourceY, capacity);
+        width     = Arrays.copyOf(width, capacity);
+        height    = Arrays.copyOf(height, capacity);
+        x         = Arrays.copyOf(x, capacity);
+        y         = Arrays.copyOf(y, capacity);
+        intensity = Arrays.copyOf(intensity, capacity);
+    }
+
+    /**
+     * Counting sort of the sprites into the strips they overlap, a sprite can be in several strips
+     */
+    private void bin(final int STRIPS) {
+        if (stripStart.length < STRIPS + 1) { stripStart = new int[STRIPS + 1]; }
+        Arrays.fill(stripStart, 0, STRIPS + 1, 0);
+
+        // count the sprites per strip, shifted by one
+        int total = 0;
+        for (int i = 0 ; i < count ; i++) {
+            int top    = Math.max(y[i], 0) / STRIP_HEIGHT;
+            int bottom = (Math.min(y[i] + height[i], targetHeight) - 1) / STRIP_HEIGHT;
+            if (isOutside(i) || top > bottom) continue;
+            for (int strip = top ; strip <= bottom ; strip++) { stripStart[strip + 1]++; }
+            total += bottom - top + 1;
+        }
+        for (int strip = 0 ; strip < STRIPS ; strip++) { stripStart[strip + 1] += stripStart[strip]; }
+        if (binned.length < total) { binned = new int[total]; }
+
+        // second pass in the same order, so every strip adds its sprites in the order they were added
+        int[] next = Arrays.copyOf(stripStart, STRIPS);
+        for (int i = 0 ; i < count ; i++) {
+            int top    = Math.max(y[i], 0) / STRIP_HEIGHT;
+            int bottom = (Math.min(y[i] + height[i], targetHeight) - 1) / STRIP_HEIGHT;
+            if (isOutside(i) || top > bottom) continue;
+            for (int strip = top ; strip <= bottom ; strip++) { binned[next[strip]++] = i; }
+        }
+    }
+
+    private boolean isOutside(final int I) {
+        return width[I] <= 0 || x[I] + width[I] <= 0 || x[I] >= targetWidth || y[I] + height[I] <= 0 || y[I] >= targetHeight;
+    }
+
+    /**
+     * Clear, accumulate and tone map the rows of one strip, only with the sprites that were binned into it
+     */
+    private void compositeStrip(final int STRIP) {
+        int fromRow   = STRIP * STRIP_HEIGHT;
+        int toRow     = Math.min(fromRow + STRIP_HEIGHT, targetHeight);
+        int rowLength = 3 * targetWidth;
+        Arrays.fill(accumulation, fromRow * rowLength, toRow * rowLength, 0);
+
+        for (int k = stripStart[STRIP] ; k < stripStart[STRIP + 1] ; k++) {
+            int i = binned[k];
+            // clip the sprite against the strip and the target
+            int   top    = Math.max(y[i], fromRow);
+            int   bottom = Math.min(y[i] + height[i], toRow);
+            int   left   = Math.max(x[i], 0);
+            int   right  = Math.min(x[i] + width[i], targetWidth);
+            int[] pixels = source[i];
+            int   factor = intensity[i];
+            for (int row = top ; row < bottom ; row++) {
+                int read  = (sourceY[i] + row - y[i]) * scanline[i] + sourceX[i] + left - x[i];
+                int write = row * rowLength + 3 * left;
+                for (int column = left ; column < right ; column++, read++, write += 3) {
+                    int argb = pixels[read];
+                    if (0 == argb) continue;
+                    accumulation[write]     += ((argb >> 16) & 0xFF) * factor;
+                    accumulation[write + 1] += ((argb >> 8) & 0xFF) * factor;
+                    accumulation[write + 2] += (argb & 0xFF) * factor;
+                }
+            }
+        }
+
+        for (int row = fromRow ; row < toRow ; row++) {
+            int read  = row * rowLength;
+            int write = row * targetWidth;
+            for (int column = 0 ; column < targetWidth ; column++, read += 3, write++) {
+                int red   = toneMap[Math.min(accumulation[read] >> LUT_SHIFT, LUT_SIZE - 1)];
+                int green = toneMap[Math.min(accumulation[read + 1] >> LUT_SHIFT, LUT_SIZE - 1)];
+                int blue  = toneMap[Math.min(accumulation[read + 2] >> LUT_SHIFT, LUT_SIZE - 1)];
+                int alpha = Math.max(red, Math.max(green, blue));
+                target[write] = alpha << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+    }
+
+
+    // ******************** InnerClasses **************************************
+    /**
+     * Splits the strip range in halves until a single strip is left
+     */
+    private class StripTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private        final int  fromStrip;
+        private        final int  toStrip;
+
+
+        // ******************** Constructors **********************************
+        public StripTask(final int FROM_STRIP, final int TO_STRIP) {
+            fromStrip = FROM_STRIP;
+            toStrip   = TO_STRIP;
+        }
+
+
+        // ******************** Methods ***************************************
+        @Override protected void compute() {
+            if (toStrip - fromStrip > 1) {
+                int middle = (fromStrip + toStrip) >>> 1;
+                invokeAll(new StripTask(fromStrip, middle), new StripTask(middle, toStrip));
+                return;
+            }
+            compositeStrip(fromStrip);
+        }
+    }
+}
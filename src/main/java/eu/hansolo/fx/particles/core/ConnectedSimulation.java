@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * Simulation of the ConnectedParticles demo without any JavaFX dependency. The particles wrap around
+ * the borders and every pair closer than MIN_DISTANCE is connected by a line and pulled together.
+ */
+public class ConnectedSimulation {
+    public  static final double                   MIN_DISTANCE = 70;
+    public  static final double                   RADIUS       = 4;
+    private        final SplittableRandom         rnd          = RandomService.stream("ConnectedSimulation");
+    private        final double                   width;
+    private        final double                   height;
+    private        final int                      count;
+    private        final double[]                 x;
+    private        final double[]                 y;
+    private        final double[]                 vX;
+    private        final double[]                 vY;
+    private        final SpatialGrid              grid;
+    private        final SpatialGrid.PairConsumer connector;
+    private              int[]                    lines;
+    private              double[]                 lineOpacity;
+    private              int                      lineCount;
+
+
+    // ******************** Constructors **************************************
+    public ConnectedSimulation(final double WIDTH, final double HEIGHT, final int COUNT) {
+        width       = WIDTH;
+        height      = HEIGHT;
+        count       = COUNT;
+        x           = new double[COUNT];
+        y           = new double[COUNT];
+        vX          = new double[COUNT];
+        vY          = new double[COUNT];
+        grid        = new SpatialGrid(WIDTH, HEIGHT, MIN_DISTANCE);
+        connector   = this::connect;
+        lines       = new int[2 * Math.max(1, COUNT)];
+        lineOpacity = new double[Math.max(1, COUNT)];
+        for (int i = 0 ; i < COUNT ; i++) {
+            x[i]  = rnd.nextDouble() * WIDTH;
+            y[i]  = rnd.nextDouble() * HEIGHT;
+            vX[i] = -1 + rnd.nextDouble() * 2;
+            vY[i] = -1 + rnd.nextDouble() * 2;
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getCount() { return count; }
+
+    public double[] getX() { return x; }
+    public double[] getY() { return y; }
+
+    public double[] getVX() { return vX; }
+    public double[] getVY() { return vY; }
+
+    /**
+     * Index pairs of the connected particles of the last update, 2 * getLineCount() entries are valid
+     */
+    public int[] getLines() { return lines; }
+
+    /**
+     * Opacity of the lines of the last update, 1 for touching particles, 0 at MIN_DISTANCE
+     */
+    public double[] getLineOpacity() { return lineOpacity; }
+
+    public int getLineCount() { return lineCount; }
+
+    public void update() {
+        lineCount = 0;
+
+        for (int i = 0 ; i < count ; i++) {
+            x[i] += vX[i];
+            y[i] += vY[i];
+
+            if(x[i] + RADIUS > width) {
+                x[i] = RADIUS;
+            } else if(x[i] - RADIUS < 0) {
+                x[i] = width - RADIUS;
+            }
+
+            if(y[i] + RADIUS > height) {
+                y[i] = RADIUS;
+            } else if(y[i] - RADIUS < 0) {
+                y[i] = height - RADIUS;
+            }
+        }
+
+        // Only particles in the same or in adjacent cells can be closer than MIN_DISTANCE
+        grid.build(x, y, count);
+        grid.forEachPair(x, y, MIN_DISTANCE, connector);
+    }
+
+    // Called for every pair closer than MIN_DISTANCE
+    private void connect(final int I, final int J, final double DX, final double DY, final double DISTANCE_SQUARED) {
+        double distance = Math.sqrt(DISTANCE_SQUARED);
+        if (lineCount == lineOpacity.length) {
+            lines       = Arrays.copyOf(lines, 4 * lineCount);
+            lineOpacity = Arrays.copyOf(lineOpacity, 2 * lineCount);
+        }
+        lines[2 * lineCount]     = I;
+        lines[2 * lineCount + 1] = J;
+        lineOpacity[lineCount]   = 1.0 - distance / MIN_DISTANCE;
+        lineCount++;
+
+        double ax = DX / 2000;
+        double ay = DY / 2000;
+        vX[I] -= ax;
+        vY[I] -= ay;
+        vX[J] += ax;
+        vY[J] += ay;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Simulation of the Fire effect without any JavaFX dependency. All particle fields are interleaved in
+ * one array, a particle starts at a multiple of NO_OF_FIELDS. New particles start below the bottom border,
+ * HALF_HEIGHT is half the height of the particle image.
+ *
+ * The array is used as a ring buffer: particles are emitted at the tail with the emission rate per second
+ * and removed at the head. Particles that die before the one at the head stay in the ring as dead slots
+ * until the head passes them, so spawning and expiring are O(1) and a step only touches the live range
+ * from getHead() on getCount() slots (wrapping at the end of the array). Because the life span of a
+ * particle varies by no more than a factor of 1.5 there are never many dead slots in that range.
+ */
+public class FireSimulation {
+    public  static final    int              NO_OF_FIELDS   = 8; // x, y, vx, vy, opacity, size, life, remaining life
+    public  static final    int              X              = 0;
+    public  static final    int              Y              = 1;
+    public  static final    int              VX             = 2;
+    public  static final    int              VY             = 3;
+    public  static final    int              OPACITY        = 4;
+    public  static final    int              SIZE           = 5;
+    public  static final    int              LIFE           = 6;
+    public  static final    int              REMAINING_LIFE = 7; // < 0 marks a dead slot
+    public  static final    double           DEFAULT_RATE   = 180; // new particles per second, ~150 alive
+    private        final    SplittableRandom rnd            = RandomService.stream("FireSimulation");
+    private        final    int              capacity;
+    private        final    int              end;
+    private        final    double           halfHeight;
+    private        final    double[]         particles;
+    private volatile        double           width;
+    private volatile        double           height;
+    private volatile        boolean          running;
+    private volatile        double           emissionRate;
+    private                 double           emissionBudget;
+    private                 int              head;
+    private                 int              count;
+    private                 int              live;
+    private                 int              emitted;
+    private                 int              died;
+    private                 long             dropped;
+
+
+    // ******************** Constructors **************************************
+    public FireSimulation(final int CAPACITY, final double HALF_HEIGHT) {
+        capacity     = CAPACITY;
+        end          = CAPACITY * NO_OF_FIELDS;
+        halfHeight   = HALF_HEIGHT;
+        particles    = new double[end];
+        emissionRate = DEFAULT_RATE;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Removes all particles
+     */
+    public void init() {
+        head           = 0;
+        count          = 0;
+        live           = 0;
+        emissionBudget = 0;
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public double[] getParticles() { return particles; }
+
+    /**
+     * Array index of the oldest slot of the ring
+     */
+    public int getHead() { return head; }
+
+    /**
+     * Number of slots in use from the head on, includes dead slots that wait for the head
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Number of particles that are alive
+     */
+    public int getLive() { return live; }
+
+    /**
+     * Number of particles emitted in the last step
+     */
+    public int getEmitted() { return emitted; }
+
+    /**
+     * Number of particles that died in the last step
+     */
+    public int getDied() { return died; }
+
+    /**
+     * Number of particles that could not be emitted because the ring was full
+     */
+    public long getDropped() { return dropped; }
+
+    public void setSize(final double WIDTH, final double HEIGHT) {
+        width  = WIDTH;
+        height = HEIGHT;
+    }
+
+    /**
+     * New particles per second, the steps are expected to run at FixedStepLoop.DEFAULT_STEPS_PER_SECOND.
+     * The number of particles alive is about the rate times 50 steps of life, the rest is dropped if that
+     * exceeds the capacity.
+     */
+    public double getEmissionRate() { return emissionRate; }
+    public void setEmissionRate(final double RATE) { emissionRate = Math.max(0, RATE); }
+
+    /**
+     * While running, new particles are emitted, otherwise the existing ones fade out
+     */
+    public boolean isRunning() { return running; }
+    public void setRunning(final boolean RUNNING) { running = RUNNING; }
+
+    /**
+     * Move all particles by one step, expire the dead ones and emit the new ones
+     *
+     * @return true if at least one particle is still visible
+     */
+    public boolean update() {
+        emitted = 0;
+        died    = 0;
+
+        // Move the live range
+        int pos = head;
+        for (int i = 0 ; i < count ; i++) {
+            if (particles[pos + REMAINING_LIFE] >= 0) { update(pos); }
+            pos += NO_OF_FIELDS;
+            if (pos == end) { pos = 0; }
+        }
+
+        // Expire at the head
+        while (count > 0 && particles[head + REMAINING_LIFE] < 0) {
+            head += NO_OF_FIELDS;
+            if (head == end) { head = 0; }
+            count--;
+        }
+
+        // Emit at the tail
+        if (running) {
+            emissionBudget += emissionRate / FixedStepLoop.DEFAULT_STEPS_PER_SECOND;
+            int newParticles = (int) emissionBudget;
+            emissionBudget  -= newParticles;
+            for (int i = 0 ; i < newParticles ; i++) {
+                if (count == capacity) {
+                    dropped += newParticles - i;
+                    break;
+                }
+                int tail = head + count * NO_OF_FIELDS;
+                initParticle(tail >= end ? tail - end : tail);
+                count++;
+            }
+        }
+        return live > 0;
+    }
+
+    private void initParticle(final int POS) {
+        particles[POS + X]              = rnd.nextDouble() * width;
+        particles[POS + Y]              = height + halfHeight;
+        particles[POS + VX]             = (rnd.nextDouble() * 2.0) - 1.0;
+        particles[POS + VY]             = -(rnd.nextDouble() * 3);
+        particles[POS + OPACITY]        = 0.5;
+        particles[POS + SIZE]           = (rnd.nextDouble() * 1.0) + 0.5;
+        particles[POS + LIFE]           = (rnd.nextDouble() * 20) + 40;
+        particles[POS + REMAINING_LIFE] = particles[POS + LIFE];
+        live++;
+        emitted++;
+    }
+
+    private void update(final int POS) {
+        // Calculate opacity
+        particles[POS + OPACITY] = (particles[POS + REMAINING_LIFE] / particles[POS + LIFE] * 0.5);
+
+        // Calculate new pos
+        particles[POS + X] += particles[POS + VX];
+        particles[POS + Y] += particles[POS + VY];
+
+        // Calculate remaining life
+        particles[POS + REMAINING_LIFE]--;
+
+        // Mark dead particles, the slot is freed when the head reaches it
+        if (particles[POS + REMAINING_LIFE] < 0 || particles[POS + OPACITY] < 0.01) {
+            particles[POS + REMAINING_LIFE] = -1;
+            particles[POS + OPACITY]        = 0;
+            live--;
+            died++;
+        }
+    }
+}
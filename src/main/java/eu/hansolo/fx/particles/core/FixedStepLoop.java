@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs a simulation step on its own thread at a fixed rate, independent of the JavaFX pulse.
+ * The step publishes its results (e.g. through a TripleBuffer) and the FX thread only draws them.
+ * Because the renderer always shows the last published step, it uses getAlpha() to interpolate
+ * between that step and the one before.
+ *
+ * If the steps fall behind (slow machine, GC), at most MAX_CATCH_UP_STEPS are run in a row and the
+ * rest of the backlog is dropped, so the simulation slows down instead of spiraling.
+ *
+ * pause() and resume() suspend the loop, e.g. while the window is minimized. The CatchUp policy decides
+ * what happens to the time in between.
+ */
+public class FixedStepLoop {
+    public enum CatchUp {
+        SKIP,         // continue as if no time passed while paused
+        FAST_FORWARD  // run the missed steps (at most MAX_RESUME_STEPS) as fast as possible, then continue in real time
+    }
+
+    public  static final double   DEFAULT_STEPS_PER_SECOND = 60; // the per step constants of the demos are tuned for 60 fps
+    public  static final int      MAX_RESUME_STEPS         = 600;
+    private static final int      MAX_CATCH_UP_STEPS       = 5;
+    private        final String   name;
+    private        final long     stepNanos;
+    private        final Runnable step;
+    private volatile     Thread   thread;
+    private              long     stepTime;
+    private              long     pausedAt;
+    private              long     backlog;
+
+
+    // ******************** Constructors **************************************
+    public FixedStepLoop(final String NAME, final Runnable STEP) {
+        this(NAME, DEFAULT_STEPS_PER_SECOND, STEP);
+    }
+    public FixedStepLoop(final String NAME, final double STEPS_PER_SECOND, final Runnable STEP) {
+        name      = NAME;
+        stepNanos = (long) (1_000_000_000 / STEPS_PER_SECOND);
+        step      = STEP;
+    }
+
+
+    // ******************** Methods *******************************************
+    public synchronized void start() {
+        if (null != thread) return;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        FrameProfiler.trackThread(thread);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop. Can be called from the step itself, otherwise it waits for the running step to finish,
+     * so a following start() never runs two steps at the same time.
+     */
+    public synchronized void stop() {
+        Thread oldThread = thread;
+        if (null == oldThread) return;
+        thread = null;
+        LockSupport.unpark(oldThread);
+        if (Thread.currentThread() != oldThread) {
+            try {
+                oldThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and remembers when, so resume() knows how many steps were missed
+     */
+    public synchronized void pause() {
+        if (null == thread) return;
+        pausedAt = System.nanoTime();
+        stop();
+    }
+
+    /**
+     * Starts the loop again after pause(), with FAST_FORWARD the missed steps are run first
+     */
+    public synchronized void resume(final CatchUp CATCH_UP) {
+        if (null != thread) return;
+        if (CatchUp.FAST_FORWARD == CATCH_UP && 0 != pausedAt) {
+            backlog = Math.min(MAX_RESUME_STEPS, (System.nanoTime() - pausedAt) / stepNanos);
+        }
+        pausedAt = 0;
+        start();
+    }
+
+    public boolean isRunning() { return null != thread; }
+
+    public long getStepNanos() { return stepNanos; }
+
+    /**
+     * Only valid inside of the step: the System.nanoTime() based point in time the running step stands for.
+     * Publish it together with the results and pass it to getAlpha() when drawing them.
+     */
+    public long getStepTime() { return stepTime; }
+
+    /**
+     * Fraction [0, 1] of a step that passed since the given step time. The renderer draws
+     * previous + alpha * (current - previous), which means it is always one step behind, but smooth.
+     */
+    public double getAlpha(final long STEP_TIME) {
+        double alpha = (System.nanoTime() - STEP_TIME) / (double) stepNanos;
+        return alpha < 0 ? 0 : (alpha > 1 ? 1 : alpha);
+    }
+
+    private void run() {
+        final Thread SELF = Thread.currentThread();
+        long nextStepTime = System.nanoTime();
+
+        // missed steps after resume(), their step times lie in the past
+        for (long missed = backlog ; missed > 0 && thread == SELF ; missed--) {
+            stepTime = nextStepTime - missed * stepNanos;
+            step.run();
+        }
+        backlog = 0;
+
+        while (thread == SELF) {
+            long now   = System.nanoTime();
+            int  steps = 0;
+            while (now - nextStepTime >= 0 && steps < MAX_CATCH_UP_STEPS && thread == SELF) {
+                stepTime = nextStepTime;
+                step.run();
+                nextStepTime += stepNanos;
+                steps++;
+            }
+            // drop what we can't catch up with
+            if (now - nextStepTime >= 0) { nextStepTime = now; }
+
+            LockSupport.parkNanos(this, nextStepTime - System.nanoTime());
+        }
+    }
+}
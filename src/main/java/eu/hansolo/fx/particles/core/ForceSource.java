@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+/**
+ * Something that exerts a force on particles, e.g. an attractor or a repeller.
+ */
+public interface ForceSource {
+
+    /**
+     * Add the force on the particles in [from, to) straight into the given acceleration arrays.
+     * Implementations must not allocate, this is called per particle chunk on every frame.
+     */
+    void accumulate(double[] x, double[] y, double[] ax, double[] ay, int from, int to);
+
+}
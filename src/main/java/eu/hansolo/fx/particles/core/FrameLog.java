@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Rolling per frame log. Files ending in .json get one JSON object per line, all others CSV with a header.
+ * append() only formats the line and hands it to a writer thread, so the FX thread never waits for the disk.
+ * If the writer can't keep up, lines are dropped and counted instead of blocking.
+ *
+ * When the file gets larger than MAX_BYTES it is renamed to name.1.ext, name.1.ext to name.2.ext and so on,
+ * at most MAX_FILES files are kept.
+ */
+public class FrameLog {
+    public  enum Format { CSV, JSON }
+
+    private static final String                CSV_HEADER = "time,frame,particles,emitRate,deathRate,stepMillis,renderMillis,droppedFrames";
+    private static final int                   QUEUE_SIZE = 4096;
+    private static final String                STOP       = new String("stop");
+    private        final File                  file;
+    private        final Format                format;
+    private        final long                  maxBytes;
+    private        final int                   maxFiles;
+    private        final BlockingQueue<String> queue;
+    private        final AtomicLong            droppedLines;
+    private        final Thread                thread;
+    private              Writer                writer;
+    private              long                  bytes;
+
+
+    // ******************** Constructors **************************************
+    public FrameLog(final File FILE, final long MAX_BYTES, final int MAX_FILES) throws IOException {
+        file         = FILE;
+        format       = FILE.getName().toLowerCase(Locale.ROOT).endsWith(".json") ? Format.JSON : Format.CSV;
+        maxBytes     = MAX_BYTES;
+        maxFiles     = Math.max(1, MAX_FILES);
+        queue        = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        droppedLines = new AtomicLong();
+        open();
+        thread       = new Thread(this::run, "FrameLog " + FILE.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    // ******************** Methods *******************************************
+    public Format getFormat() { return format; }
+
+    /**
+     * Lines that were dropped because the writer thread couldn't keep up
+     */
+    public long getDroppedLines() { return droppedLines.get(); }
+
+    public void append(final long TIME_MILLIS, final long FRAME, final int PARTICLES, final double EMIT_RATE, final double DEATH_RATE,
+                       final double STEP_MILLIS, final double RENDER_MILLIS, final long DROPPED_FRAMES) {
+        String line;
+        if (Format.JSON == format) {
+            line = String.format(Locale.US, "{\"time\":%d,\"frame\":%d,\"particles\":%d,\"emitRate\":%.1f,\"deathRate\":%.1f,\"stepMillis\":%.3f,\"renderMillis\":%.3f,\"droppedFrames\":%d}",
+                                 TIME_MILLIS, FRAME, PARTICLES, EMIT_RATE, DEATH_RATE, STEP_MILLIS, RENDER_MILLIS, DROPPED_FRAMES);
+        } else {
+            line = String.format(Locale.US, "%d,%d,%d,%.1f,%.1f,%.3f,%.3f,%d", TIME_MILLIS, FRAME, PARTICLES, EMIT_RATE, DEATH_RATE, STEP_MILLIS, RENDER_MILLIS, DROPPED_FRAMES);
+        }
+        if (!queue.offer(line)) { droppedLines.incrementAndGet(); }
+    }
+
+    /**
+     * Write the pending lines and stop the writer thread
+     */
+    public void close() {
+        try {
+            queue.offer(STOP, 1, TimeUnit.SECONDS);
+            thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                String line = queue.take();
+                if (STOP == line) break;
+                write(line);
+                // flush when the queue runs empty, so the file is current without a flush per line
+                if (queue.isEmpty()) { writer.flush(); }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Frame log " + file + " stopped: " + e.getMessage());
+        } finally {
+            try { writer.close(); } catch (IOException e) { /* nothing left to do */ }
+        }
+    }
+
+    private void write(final String LINE) throws IOException {
+        if (bytes > 0 && bytes + LINE.length() + 1 > maxBytes) { roll(); }
+        writer.write(LINE);
+        writer.write('\n');
+        bytes += LINE.length() + 1;
+    }
+
+    private void open() throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (null != directory && !directory.isDirectory() && !directory.mkdirs()) { throw new IOException("Can't create " + directory); }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8));
+        bytes  = 0;
+        if (Format.CSV == format) { write(CSV_HEADER); }
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        new File(nameOf(maxFiles - 1)).delete();
+        for (int i = maxFiles - 2 ; i >= 0 ; i--) {
+            File from = 0 == i ? file : new File(nameOf(i));
+            if (from.exists()) { from.renameTo(new File(nameOf(i + 1))); }
+        }
+        open();
+    }
+
+    // name.i.ext, i = 0 is the file itself
+    private String nameOf(final int INDEX) {
+        String path = file.getPath();
+        if (0 == INDEX) return path;
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) + "." + INDEX + path.substring(dot) : path + "." + INDEX;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Where the time of a frame goes. Simulation threads record the phases of a step, the FX thread calls
+ * beginFrame() and endFrame() around its pulse and records what it draws. Every phase has a Histogram,
+ * so p50, p99 and max are available without a profiler attached.
+ *
+ * While the profiler is enabled, beginFrame() also takes the bytes allocated by the tracked threads and the
+ * collections of all garbage collectors since the last frame. Tracked are the threads that call beginFrame()
+ * plus the simulation and pool threads that register themselves with trackThread(), their ids are kept in a
+ * small array that only changes when a thread is added. Allocations are only counted on JVMs that support
+ * com.sun.management.ThreadMXBean. The ProfilerOverlay enables its profilers while it is shown.
+ *
+ * PRESENT is the time from the pulse time stamp to the end of endFrame(). JavaFX doesn't report when the
+ * render thread actually shows the frame, so this is everything the FX thread did for the frame.
+ */
+public class FrameProfiler {
+    public enum Phase {
+        EMIT("emit"),
+        FORCES("forces"),          // only if forces are a pass of their own, fused kernels record INTEGRATE
+        INTEGRATE("integrate"),
+        CULL("cull"),
+        RENDER("render"),          // issuing the draw calls or rasterizing on the FX thread
+        PRESENT("pulse->present"),
+        FRAME("frame interval");
+
+        public final String label;
+
+        Phase(final String LABEL) { label = LABEL; }
+    }
+
+    private static final int                             MAX_TRACKED_THREADS = 64;
+    private static final long[]                          TRACKED             = new long[MAX_TRACKED_THREADS];
+    private static       int                             trackedCount;
+    private static       int                             trackedNext;
+    private static       long[]                          trackedIds          = new long[0];
+    private        final Map<Phase, Histogram>           histograms;
+    private        final Histogram                       allocations;
+    private        final Histogram                       gcPauses;
+    private        final ThreadMXBean                    threads;
+    private        final com.sun.management.ThreadMXBean allocationThreads;
+    private        final List<GarbageCollectorMXBean>    collectors;
+    private              long                            lastPulse;
+    private              long                            lastAllocated;
+    private              long                            lastGcCount;
+    private              long                            lastGcMillis;
+    private              long                            gcCount;
+    private              long                            gcMillis;
+    private              long                            frameCount;
+    private              boolean                         enabled;
+    private              boolean                         frameThreadTracked;
+
+
+    // ******************** Constructors **************************************
+    public FrameProfiler() {
+        histograms  = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) { histograms.put(phase, new Histogram()); }
+        allocations = new Histogram();
+        gcPauses    = new Histogram();
+        threads     = ManagementFactory.getThreadMXBean();
+        collectors  = ManagementFactory.getGarbageCollectorMXBeans();
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocationThreads = (com.sun.management.ThreadMXBean) threads;
+            allocationThreads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            allocationThreads = null;
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Count the allocations of THREAD from now on. Up to MAX_TRACKED_THREADS are tracked, the oldest one is
+     * replaced when a pool creates more threads over time.
+     */
+    public static synchronized void trackThread(final Thread THREAD) {
+        long id = THREAD.getId();
+        for (int i = 0 ; i < trackedCount ; i++) { if (TRACKED[i] == id) return; }
+        TRACKED[trackedNext] = id;
+        trackedNext          = (trackedNext + 1) % MAX_TRACKED_THREADS;
+        trackedCount         = Math.min(trackedCount + 1, MAX_TRACKED_THREADS);
+        trackedIds           = Arrays.copyOf(TRACKED, trackedCount);
+    }
+
+    private static synchronized long[] getTrackedIds() { return trackedIds; }
+
+    public boolean isEnabled() { return enabled; }
+    /**
+     * Sample allocations and GC in beginFrame(), the phases are recorded either way
+     */
+    public void setEnabled(final boolean ENABLED) {
+        if (ENABLED && !enabled) {
+            lastAllocated = allocatedBytes();
+            lastGcCount   = gcCount();
+            lastGcMillis  = gcMillis();
+        }
+        enabled = ENABLED;
+    }
+
+    /**
+     * Record the time from START (System.nanoTime()) until now
+     *
+     * @return now, the start of the next phase
+     */
+    public long record(final Phase PHASE, final long START) {
+        long now = System.nanoTime();
+        histograms.get(PHASE).record(now - START);
+        return now;
+    }
+
+    public void recordNanos(final Phase PHASE, final long NANOS) { histograms.get(PHASE).record(NANOS); }
+
+    /**
+     * Call at the beginning of the pulse with the time stamp the AnimationTimer got
+     *
+     * @return now
+     */
+    public long beginFrame(final long PULSE) {
+        if (0 != lastPulse) { histograms.get(Phase.FRAME).record(PULSE - lastPulse); }
+        lastPulse = PULSE;
+        frameCount++;
+        if (!enabled) return System.nanoTime();
+
+        if (!frameThreadTracked) {
+            trackThread(Thread.currentThread());
+            frameThreadTracked = true;
+            lastAllocated      = allocatedBytes();
+        }
+        if (null != allocationThreads) {
+            long allocated = allocatedBytes();
+            // threads that ended take their bytes with them, that would look like a negative allocation
+            allocations.record(Math.max(0, allocated - lastAllocated));
+            lastAllocated = allocated;
+        }
+
+        long count  = gcCount();
+        long millis = gcMillis();
+        if (count != lastGcCount) {
+            gcCount  += count - lastGcCount;
+            gcMillis += millis - lastGcMillis;
+            gcPauses.record((millis - lastGcMillis) * 1_000_000);
+        }
+        lastGcCount  = count;
+        lastGcMillis = millis;
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Call at the end of the pulse with the same time stamp as beginFrame()
+     */
+    public void endFrame(final long PULSE) { histograms.get(Phase.PRESENT).record(System.nanoTime() - PULSE); }
+
+    public Histogram getHistogram(final Phase PHASE) { return histograms.get(PHASE); }
+
+    /**
+     * Bytes allocated by the tracked threads between two enabled frames, empty if the JVM can't count them
+     */
+    public Histogram getAllocations() { return allocations; }
+
+    public boolean isAllocationTrackingSupported() { return null != allocationThreads; }
+
+    /**
+     * GC time of the frames that had at least one collection, in nanoseconds
+     */
+    public Histogram getGcPauses() { return gcPauses; }
+
+    public long getGcCount() { return gcCount; }
+
+    public long getGcMillis() { return gcMillis; }
+
+    public long getFrameCount() { return frameCount; }
+
+    public void reset() {
+        for (Histogram histogram : histograms.values()) { histogram.reset(); }
+        allocations.reset();
+        gcPauses.reset();
+        gcCount    = 0;
+        gcMillis   = 0;
+        frameCount = 0;
+        lastPulse  = 0;
+    }
+
+    /**
+     * Table of all phases that have been recorded, plus allocations and GC
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format(Locale.US, "%-15s %8s %8s %8s%n", "ms", "p50", "p99", "max"));
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = histograms.get(phase);
+            if (0 == histogram.getCount()) continue;
+            summary.append(String.format(Locale.US, "%-15s %8.3f %8.3f %8.3f%n", phase.label, histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        if (null != allocationThreads) {
+            summary.append(String.format(Locale.US, "%-15s %8s %8s %8s%n", "alloc/frame", kb(allocations.getPercentile(50)), kb(allocations.getPercentile(99)), kb(allocations.getMax())));
+        }
+        summary.append(String.format(Locale.US, "gc: %d collections, %d ms, max %.1f ms in one frame", gcCount, gcMillis, gcPauses.getMax() / 1e6));
+        return summary.toString();
+    }
+
+    private static String kb(final long BYTES) { return String.format(Locale.US, "%.1fK", BYTES / 1024.0); }
+
+    private long allocatedBytes() {
+        if (null == allocationThreads) return 0;
+        long   sum   = 0;
+        long[] bytes = allocationThreads.getThreadAllocatedBytes(getTrackedIds());
+        for (long b : bytes) { if (b > 0) sum += b; }
+        return sum;
+    }
+
+    private long gcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean collector : collectors) { sum += Math.max(0, collector.getCollectionCount()); }
+        return sum;
+    }
+
+    private long gcMillis() {
+        long sum = 0;
+        for (GarbageCollectorMXBean collector : collectors) { sum += Math.max(0, collector.getCollectionTime()); }
+        return sum;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Histogram of non negative long values (e.g. nanoseconds or bytes) in the style of an HdrHistogram.
+ * Values below 128 have a bucket each, above that every power of two is split into 64 buckets, so a
+ * percentile is off by less than 1.6 % over the whole range of long. Recording doesn't allocate.
+ *
+ * All methods are synchronized, one thread can record while another one reads the percentiles.
+ */
+public class Histogram {
+    private static final int    SUB_BITS     = 7;
+    private static final int    SUB_BUCKETS  = 1 << SUB_BITS;       // 128 exact buckets below 128
+    private static final int    HALF_BUCKETS = SUB_BUCKETS >> 1;    // 64 buckets per power of two above
+    private        final long[] counts       = new long[SUB_BUCKETS + (64 - SUB_BITS) * HALF_BUCKETS];
+    private              long   count;
+    private              long   sum;
+    private              long   max;
+
+
+    // ******************** Methods *******************************************
+    public synchronized void record(final long VALUE) {
+        long value = Math.max(0, VALUE);
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if (value > max) { max = value; }
+    }
+
+    public synchronized long getCount() { return count; }
+
+    public synchronized long getMax() { return max; }
+
+    public synchronized double getMean() { return 0 == count ? 0 : sum / (double) count; }
+
+    /**
+     * Value that PERCENTILE percent of all recorded values are less than or equal to, e.g. 50 for the median
+     */
+    public synchronized long getPercentile(final double PERCENTILE) {
+        if (0 == count) return 0;
+        long rank    = Math.max(1, (long) Math.ceil(PERCENTILE / 100.0 * count));
+        long counted = 0;
+        for (int index = 0 ; index < counts.length ; index++) {
+            counted += counts[index];
+            if (counted >= rank) { return Math.min(upperBound(index), max); }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum   = 0;
+        max   = 0;
+    }
+
+    static int indexOf(final long VALUE) {
+        if (VALUE < SUB_BUCKETS) return (int) VALUE;
+        int shift = 63 - Long.numberOfLeadingZeros(VALUE) - (SUB_BITS - 1);
+        int sub   = (int) (VALUE >>> shift);  // 64 .. 127
+        return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + sub - HALF_BUCKETS;
+    }
+
+    // Largest value that ends up in the bucket
+    static long upperBound(final int INDEX) {
+        if (INDEX < SUB_BUCKETS) return INDEX;
+        int  k     = INDEX - SUB_BUCKETS;
+        int  shift = k / HALF_BUCKETS + 1;
+        long sub   = k % HALF_BUCKETS + HALF_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
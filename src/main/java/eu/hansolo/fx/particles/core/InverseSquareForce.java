@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+/**
+ * Force towards a point that falls off with the square of the distance, or away from it for a
+ * negative strength. This is the force of the attractors and repellers of the attractor demo.
+ *
+ * Location and strength may be changed from another thread while the simulation runs.
+ */
+public class InverseSquareForce implements ForceSource {
+
+    /**
+     * Below this distance the force doesn't grow any more
+     */
+    public static final double MIN_DISTANCE = 5;
+
+    /**
+     * Above this distance the force doesn't get weaker any more
+     */
+    public static final double MAX_DISTANCE = 1000;
+
+    private volatile double x;
+    private volatile double y;
+    private volatile double strength;
+
+    public InverseSquareForce(double x, double y, double strength) {
+        this.x = x;
+        this.y = y;
+        this.strength = strength;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public void setLocation(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public double getStrength() {
+        return strength;
+    }
+
+    public void setStrength(double strength) {
+        this.strength = strength;
+    }
+
+    @Override
+    public void accumulate(double[] x, double[] y, double[] ax, double[] ay, int from, int to) {
+        accumulate(this.x, this.y, strength, x, y, ax, ay, from, to);
+    }
+
+    /**
+     * Add an inverse square force towards (or away from, for a negative strength) the given location
+     * to the acceleration of the particles in [from, to), without creating a vector per particle.
+     */
+    public static void accumulate(double locationX, double locationY, double strength, double[] x, double[] y, double[] ax, double[] ay, int from, int to) {
+
+        for (int i = from; i < to; i++) {
+
+            // calculate direction of force
+            double dx = locationX - x[i];
+            double dy = locationY - y[i];
+
+            // get distance, zero distance means no direction and therefore no force
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance == 0) {
+                continue;
+            }
+
+            // keep distance within a reasonable range
+            double clamped = distance < MIN_DISTANCE ? MIN_DISTANCE : (distance > MAX_DISTANCE ? MAX_DISTANCE : distance);
+
+            // magnitude divided by distance normalizes the direction at the same time
+            double factor = strength / (clamped * clamped) / distance;
+
+            ax[i] += dx * factor;
+            ay[i] += dy * factor;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Emits particles at random positions on a horizontal line, moving upwards with a little gaussian noise.
+ * The parameters may be changed from another thread while the simulation runs, the random numbers come from
+ * a stream of the {@link RandomService} that is only used by the simulation thread.
+ */
+public class LineEmitter implements Emitter {
+
+    private final SplittableRandom random = RandomService.stream("LineEmitter");
+
+    private volatile double centerX;
+    private volatile double y;
+    private volatile double width;
+    private volatile double lifeSpan;
+
+    public LineEmitter(double centerX, double y, double width, double lifeSpan) {
+        set(centerX, y, width, lifeSpan);
+    }
+
+    /**
+     * @param centerX  center of the line
+     * @param y        location of the line
+     * @param width    length of the line
+     * @param lifeSpan life span of the new particles in steps
+     */
+    public void set(double centerX, double y, double width, double lifeSpan) {
+        this.centerX = centerX;
+        this.y = y;
+        this.width = width;
+        this.lifeSpan = lifeSpan;
+    }
+
+    @Override
+    public void emit(ParticleStore particles, int count) {
+
+        double centerX = this.centerX;
+        double y = this.y;
+        double width = this.width;
+        double lifeSpan = this.lifeSpan;
+
+        for (int i = 0; i < count; i++) {
+
+            // random location
+            double x = centerX + random.nextDouble() * width - width / 2;
+
+            // create motion data
+            double vx = RandomService.nextGaussian(random) * 0.3;
+            double vy = RandomService.nextGaussian(random) * 0.3 - 1.0;
+
+            // register particle
+            particles.add(x, y, vx, vy, lifeSpan);
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Simulation of the MouseGravityParticles demo without any JavaFX dependency. All particle fields are
+ * interleaved in one array, particle i starts at index i * NO_OF_FIELDS.
+ */
+public class MouseGravitySimulation {
+    public  static final int              X                 = 0;
+    public  static final int              Y                 = 1;
+    public  static final int              VX                = 2;
+    public  static final int              VY                = 3;
+    public  static final int              AX                = 4;
+    public  static final int              AY                = 5;
+    public  static final int              SPEED             = 6;
+    public  static final int              NO_OF_FIELDS      = 7;    // x, y, vx, vy, ax, ay, speed
+    public  static final double           WHITE             = -1;
+    private static final boolean          REFLECT_ON_BORDER = true;
+    private static final double           MIN_DISTANCE      = 100;   // 100
+    private static final double           MAX_DISTANCE      = 3000; // 3000
+    private static final int              MOUSE_GRAVITY     = 9;    // 18
+    private static final double           SPEED_LIMIT       = 20.5;    // 2
+    private static final double           DAMPING           = 0.025;  // 0.5
+    private        final SplittableRandom rnd               = RandomService.stream("MouseGravitySimulation");
+    private        final double           width;
+    private        final double           height;
+    private        final int              count;
+    private        final double[]         particles;
+
+
+    // ******************** Constructors **************************************
+    public MouseGravitySimulation(final double WIDTH, final double HEIGHT, final int COUNT) {
+        width     = WIDTH;
+        height    = HEIGHT;
+        count     = COUNT;
+
+        // Initialize particles
+        final int ARRAY_LENGTH = COUNT * NO_OF_FIELDS;
+        particles             = new double[ARRAY_LENGTH];
+        double initialSpeed   = 1;
+        int nextParticleIndex = 0; // next position to insert new particle
+        for (int i = 0 ; i < COUNT; i++) {
+            nextParticleIndex = (nextParticleIndex + NO_OF_FIELDS) % ARRAY_LENGTH;
+            particles[nextParticleIndex + X]     = rnd.nextDouble() * WIDTH;
+            particles[nextParticleIndex + Y]     = rnd.nextDouble() * HEIGHT;
+            particles[nextParticleIndex + VX]    = rnd.nextDouble() * initialSpeed - initialSpeed * 0.5;
+            particles[nextParticleIndex + VY]    = rnd.nextDouble() * initialSpeed - initialSpeed * 0.5;
+            particles[nextParticleIndex + AX]    = 0;
+            particles[nextParticleIndex + AY]    = 0;
+            particles[nextParticleIndex + SPEED] = 0;
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getCount() { return count; }
+
+    public double[] getParticles() { return particles; }
+
+    /**
+     * Pull the particle at INDEX towards the mouse
+     *
+     * @return the saturation the particle should be drawn with or WHITE
+     */
+    public double checkGravity(final int INDEX, final double MOUSE_X, final double MOUSE_Y) {
+        double dX = particles[INDEX + X] - MOUSE_X;
+        double dY = particles[INDEX + Y] - MOUSE_Y;
+
+        //double distance = Math.sqrt(dX * dX + dY * dY);
+        double distance = 1 / invSqrt(dX * dX + dY * dY);
+
+        // scale the vector to the inverse square distance
+        dX /= (Math.pow(distance, 2.5) / MOUSE_GRAVITY); // bigger values increase gravity of mouseposition
+        dY /= (Math.pow(distance, 2.5) / MOUSE_GRAVITY);
+
+        if(distance > MIN_DISTANCE){
+            particles[INDEX + AX] -= dX * 2;
+            particles[INDEX + AY] -= dY * 2;
+            return WHITE;
+        } else {
+            double saturation = 1 / MAX_DISTANCE * distance * 32;
+            saturation = saturation < 0 ? 0 : (saturation > 1 ? 1 : saturation);
+            return saturation;
+        }
+    }
+
+    /**
+     * Move the particle at POS by one step
+     */
+    public void update(final int POS) {
+        // Calculate speed
+        particles[POS + SPEED] = 1 / invSqrt(particles[POS + VX] * particles[POS + VX] + particles[POS + VY] * particles[POS + VY]);
+        //particles[POS + SPEED] = Math.sqrt(particles[POS + VX] * particles[POS + VX] + particles[POS + VY] * particles[POS + VY]);
+        if(particles[POS + SPEED] > SPEED_LIMIT) {
+            particles[POS + VX] /= (particles[POS + SPEED] / SPEED_LIMIT);
+            particles[POS + VY] /= (particles[POS + SPEED] / SPEED_LIMIT);
+        }
+
+        // Calculate velocity and new pos
+        particles[POS + X] += (particles[POS + VX] += particles[POS + AX]);
+        particles[POS + Y] += (particles[POS + VY] += particles[POS + AY]);
+
+        // Reset acceleration
+        particles[POS + AX] = 0;
+        particles[POS + AY] = 0;
+
+        if (REFLECT_ON_BORDER) {
+            // Reflection on borders
+            if(particles[POS + X] < 0){
+                particles[POS + X]  = 0;
+                particles[POS + VX] *= -DAMPING;
+            } else if(particles[POS + X] > width){
+                particles[POS + X]  = width;
+                particles[POS + VX] *= -DAMPING;
+            }
+
+            if(particles[POS + Y] < 0){
+                particles[POS + Y]  = 0;
+                particles[POS + VY] *= -DAMPING;
+            } else if(particles[POS + Y] > height){
+                particles[POS + Y] = height;
+                particles[POS + VY] *= -DAMPING;
+            }
+        } else {
+            // No reflection on borders
+            if (particles[POS + X] + 1 > width) {
+                particles[POS + X] = 1;
+            } else if (particles[POS + X] - 1 < 0) {
+                particles[POS + X] = width - 1;
+            }
+            if (particles[POS + Y] + 1 > height) {
+                particles[POS + Y] = 1;
+            } else if (particles[POS + Y] - 1 < 0) {
+                particles[POS + Y] = height - 1;
+            }
+        }
+    }
+
+    private double invSqrt(double x) {
+        double xhalf = 0.5d * x;
+        long i = Double.doubleToLongBits(x);
+        i = 0x5fe6ec85e7de30daL - (i>>1);
+        x = Double.longBitsToDouble(i);
+        x = x * (1.5d - xhalf * x * x);
+        return x;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Makes a particle engine observable from outside of the process. The simulation thread calls step(),
+ * the FX thread calls frame(), JMX clients (e.g. jconsole) read the values through ParticleMetricsMBean.
+ * With a FrameLog every frame is also written to a rolling CSV or JSON lines file.
+ *
+ * create() configures it from system properties: -Dparticles.jmx=false doesn't register the MBean at all,
+ * -Dparticles.log=directory writes the frame log to directory/name.csv, or name.json with
+ * -Dparticles.log.format=json. -Dparticles.log.maxBytes and -Dparticles.log.maxFiles control the rolling
+ * (default 10 MB, 5 files).
+ */
+public class ParticleMetrics implements ParticleMetricsMBean {
+    public  static final String      DOMAIN            = "eu.hansolo.fx.particles";
+    private static final long        RATE_WINDOW_NANOS = 1_000_000_000;
+    private        final String      name;
+    private        final long        frameNanos;
+    private volatile     int         particleCount;
+    private volatile     double      emitRate;
+    private volatile     double      deathRate;
+    private volatile     long        stepNanos;
+    private volatile     long        renderNanos;
+    private volatile     long        frameCount;
+    private        final AtomicLong  droppedFrames;
+    // rate window, only used by the simulation thread
+    private              long        windowStart;
+    private              long        windowEmitted;
+    private              long        windowDied;
+    // only used by the FX thread
+    private              long        lastPulse;
+    private volatile     FrameLog    log;
+    private              ObjectName  objectName;
+
+
+    // ******************** Constructors **************************************
+    public ParticleMetrics(final String NAME) {
+        this(NAME, FixedStepLoop.DEFAULT_STEPS_PER_SECOND);
+    }
+    /**
+     * @param FRAMES_PER_SECOND expected frame rate, a frame interval of more than 1.5 frames counts as dropped frames
+     */
+    public ParticleMetrics(final String NAME, final double FRAMES_PER_SECOND) {
+        name          = NAME;
+        frameNanos    = (long) (1_000_000_000 / FRAMES_PER_SECOND);
+        droppedFrames = new AtomicLong();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Metrics for the engine NAME, set up from the system properties
+     */
+    public static ParticleMetrics create(final String NAME) { return create(NAME, true); }
+    /**
+     * Metrics for the engine NAME, set up from the system properties, the MBean is only registered if REGISTER is true
+     */
+    public static ParticleMetrics create(final String NAME, final boolean REGISTER) {
+        ParticleMetrics metrics = new ParticleMetrics(NAME);
+        if (REGISTER && !"false".equals(System.getProperty("particles.jmx"))) { metrics.register(); }
+        String directory = System.getProperty("particles.log");
+        if (null != directory) {
+            File file = new File(directory, NAME + ("json".equalsIgnoreCase(System.getProperty("particles.log.format")) ? ".json" : ".csv"));
+            try {
+                metrics.setLog(new FrameLog(file, Long.getLong("particles.log.maxBytes", 10_000_000), Integer.getInteger("particles.log.maxFiles", 5)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write frame log " + file, e);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Register as MBean on the platform MBean server, replaces an MBean that was registered with the same name
+     */
+    public synchronized ParticleMetrics register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName  object = new ObjectName(DOMAIN + ":type=ParticleMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(object)) { server.unregisterMBean(object); }
+            server.registerMBean(this, object);
+            objectName = object;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register metrics " + name, e);
+        }
+        return this;
+    }
+
+    public synchronized void unregister() {
+        if (null == objectName) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        }
+        objectName = null;
+    }
+
+    public FrameLog getLog() { return log; }
+    public void setLog(final FrameLog LOG) { log = LOG; }
+
+    /**
+     * Called by the simulation thread after every step
+     *
+     * @param NOW System.nanoTime() of the step
+     * @param LIVE particles alive after the step
+     * @param EMITTED particles emitted in the step
+     * @param DIED particles that died in the step
+     * @param STEP_NANOS time the step took
+     */
+    public void step(final long NOW, final int LIVE, final int EMITTED, final int DIED, final long STEP_NANOS) {
+        particleCount  = LIVE;
+        stepNanos      = STEP_NANOS;
+        windowEmitted += EMITTED;
+        windowDied    += DIED;
+        if (0 == windowStart) { windowStart = NOW; }
+        long elapsed = NOW - windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            emitRate      = windowEmitted * 1e9 / elapsed;
+            deathRate     = windowDied * 1e9 / elapsed;
+            windowStart   = NOW;
+            windowEmitted = 0;
+            windowDied    = 0;
+        }
+    }
+
+    /**
+     * Called by the FX thread once per pulse
+     *
+     * @param PULSE time stamp of the pulse (the AnimationTimer argument)
+     * @param RENDER_NANOS time the frame took to draw
+     */
+    public void frame(final long PULSE, final long RENDER_NANOS) {
+        renderNanos = RENDER_NANOS;
+        frameCount++;
+        if (0 != lastPulse) {
+            long interval = PULSE - lastPulse;
+            if (interval > frameNanos + frameNanos / 2) { droppedFrames.addAndGet(Math.round(interval / (double) frameNanos) - 1); }
+        }
+        lastPulse = PULSE;
+
+        FrameLog log = this.log;
+        if (null != log) {
+            log.append(System.currentTimeMillis(), frameCount, particleCount, emitRate, deathRate, stepNanos / 1e6, renderNanos / 1e6, droppedFrames.get());
+        }
+    }
+
+    /**
+     * Unregister the MBean and close the log
+     */
+    public void close() {
+        unregister();
+        FrameLog log = this.log;
+        if (null != log) { log.close(); }
+    }
+
+    @Override public String getName() { return name; }
+
+    @Override public int getParticleCount() { return particleCount; }
+
+    @Override public double getEmitRate() { return emitRate; }
+
+    @Override public double getDeathRate() { return deathRate; }
+
+    @Override public double getStepMillis() { return stepNanos / 1e6; }
+
+    @Override public double getRenderMillis() { return renderNanos / 1e6; }
+
+    @Override public long getFrameCount() { return frameCount; }
+
+    @Override public long getDroppedFrames() { return droppedFrames.get(); }
+
+    /**
+     * Called by JMX clients while the FX thread keeps counting, frames dropped in between aren't lost
+     */
+    @Override public void resetDroppedFrames() { droppedFrames.getAndSet(0); }
+}
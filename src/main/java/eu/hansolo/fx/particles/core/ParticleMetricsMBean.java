@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+/**
+ * Live values of a particle engine, registered by ParticleMetrics under
+ * eu.hansolo.fx.particles:type=ParticleMetrics,name=...
+ */
+public interface ParticleMetricsMBean {
+    String getName();
+
+    int getParticleCount();
+
+    /**
+     * Particles emitted per second, averaged over the last second
+     */
+    double getEmitRate();
+
+    /**
+     * Particles that died per second, averaged over the last second
+     */
+    double getDeathRate();
+
+    double getStepMillis();
+
+    double getRenderMillis();
+
+    long getFrameCount();
+
+    /**
+     * Pulses that were missed because a frame took longer than the frame interval
+     */
+    long getDroppedFrames();
+
+    void resetDroppedFrames();
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Structure-of-arrays particle pool. Every particle is a slot index into parallel primitive arrays,
+ * no scene graph node and no vector object is created per particle.
+ *
+ * Slots in [0, highWater) are either alive (lifeSpan > 0) or dead. Dead slots are kept on a free list
+ * and reused by the next add, the arrays only grow when the free list is empty and the capacity is used up.
+ * The StepKernel compacts the live particles on every step, after that there are no dead slots left.
+ * The step can also read one store and write the next state into another one, that's how the simulation
+ * and the renderer work on different stores without copying.
+ */
+public class ParticleStore {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    double[] x;
+    double[] y;
+    double[] vx;
+    double[] vy;
+    double[] ax;
+    double[] ay;
+    double[] lifeSpan;
+
+    int[] freeSlots;
+    int freeCount;
+
+    int highWater;
+    int size;
+
+    public ParticleStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ParticleStore(int initialCapacity) {
+
+        int capacity = Math.max(16, initialCapacity);
+
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        ax = new double[capacity];
+        ay = new double[capacity];
+        lifeSpan = new double[capacity];
+
+        freeSlots = new int[capacity];
+
+    }
+
+    /**
+     * Add a particle, reuse a dead slot if there is one.
+     *
+     * @return the slot index of the new particle
+     */
+    public int add(double x, double y, double vx, double vy, double lifeSpan) {
+
+        int index;
+        if (freeCount > 0) {
+            index = freeSlots[--freeCount];
+        } else {
+            if (highWater == capacity()) {
+                grow();
+            }
+            index = highWater++;
+        }
+
+        this.x[index] = x;
+        this.y[index] = y;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.ax[index] = 0;
+        this.ay[index] = 0;
+        this.lifeSpan[index] = lifeSpan;
+
+        size++;
+
+        return index;
+
+    }
+
+    /**
+     * Mark the particle in the given slot as dead and put the slot on the free list.
+     */
+    public void release(int index) {
+
+        lifeSpan[index] = 0;
+        freeSlots[freeCount++] = index;
+        size--;
+
+    }
+
+    public boolean isAlive(int index) {
+        return lifeSpan[index] > 0;
+    }
+
+    /**
+     * Number of live particles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Upper bound (exclusive) of the slots that have to be visited by a pass
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * The arrays are replaced when the store grows, so don't keep them across an add() or a step
+     */
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public double[] getVx() {
+        return vx;
+    }
+
+    public double[] getVy() {
+        return vy;
+    }
+
+    public double[] getLifeSpan() {
+        return lifeSpan;
+    }
+
+    public void clear() {
+
+        Arrays.fill(lifeSpan, 0, highWater, 0);
+
+        highWater = 0;
+        freeCount = 0;
+        size = 0;
+
+    }
+
+    /**
+     * Called by the StepKernel after it moved all live particles to [0, live).
+     * Everything above is garbage now, so the free list is empty as well.
+     */
+    void compacted(int live) {
+
+        highWater = live;
+        size = live;
+        freeCount = 0;
+
+    }
+
+    /**
+     * Make sure the given number of slots fit without growing during a step
+     */
+    void ensureCapacity(int capacity) {
+
+        while (capacity() < capacity) {
+            grow();
+        }
+
+    }
+
+    private void grow() {
+
+        int capacity = capacity() * 2;
+
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        lifeSpan = Arrays.copyOf(lifeSpan, capacity);
+
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Headless particle engine: an emitter, any number of force sources and the parallel step, without any
+ * JavaFX dependency. A renderer (or a benchmark, or a batch job) calls step() at a fixed rate and
+ * reads the particles of the target store afterwards.
+ *
+ * Gravity, max speed, emitter and forces may be changed from another thread, a step uses the values
+ * that were set when it started.
+ */
+public class ParticleSystem {
+
+    private final SimulationScheduler scheduler;
+    private final List<ForceSource> forces = new CopyOnWriteArrayList<>();
+
+    private volatile Emitter emitter;
+    private volatile int emitPerStep;
+    private volatile double gravityX;
+    private volatile double gravityY;
+    private volatile double maxSpeed = Double.MAX_VALUE;
+
+    private long emitNanos;
+    private int emitted;
+    private int died;
+
+    public ParticleSystem(int threadCount, int chunkSize) {
+        this.scheduler = new SimulationScheduler(threadCount, chunkSize);
+    }
+
+    public SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void addForce(ForceSource force) {
+        forces.add(force);
+    }
+
+    public void removeForce(ForceSource force) {
+        forces.remove(force);
+    }
+
+    public List<ForceSource> getForces() {
+        return Collections.unmodifiableList(forces);
+    }
+
+    /**
+     * @param emitter     emitter for the new particles, null emits nothing
+     * @param emitPerStep number of particles that are emitted per step
+     */
+    public void setEmitter(Emitter emitter, int emitPerStep) {
+        this.emitter = emitter;
+        this.emitPerStep = emitPerStep;
+    }
+
+    public void setGravity(double gravityX, double gravityY) {
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+    }
+
+    public void setMaxSpeed(double maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Advance all particles of the store by one step, remove the dead ones and emit new ones.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore particles) {
+        return step(particles, particles);
+    }
+
+    /**
+     * Advance all particles of the source by one step and write the ones that are still alive plus
+     * the newly emitted ones to the target. The source is only read.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore source, ParticleStore target) {
+
+        // apply forces (gravity, attractors, repellers), move particles, decrease their
+        // life span and remove the dead ones, all in a single pass per chunk
+        // the in place step compacts the source, so count it before
+        int before = source.size();
+        scheduler.getKernel().prepare(gravityX, gravityY, maxSpeed, forces, Collections.<ForceSource>emptyList());
+        int live = scheduler.step(source, target);
+        died = before - live;
+
+        long emitStart = System.nanoTime();
+
+        // add new particles, they start moving with the next step
+        Emitter emitter = this.emitter;
+        if (null != emitter) {
+            emitter.emit(target, emitPerStep);
+        }
+
+        emitNanos = System.nanoTime() - emitStart;
+        emitted = target.size() - live;
+
+        return target.size();
+
+    }
+
+    /**
+     * Time the emitter needed in the last step
+     */
+    public long getEmitNanos() {
+        return emitNanos;
+    }
+
+    /**
+     * Number of particles the emitter added in the last step
+     */
+    public int getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * Number of particles that died in the last step
+     */
+    public int getDied() {
+        return died;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+}
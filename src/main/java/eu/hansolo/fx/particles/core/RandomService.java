@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Source of all randomness in the simulations. Every consumer gets its own SplittableRandom that is derived
+ * from one global seed and the name of the stream, so nothing is shared between threads and a run can be
+ * replayed bit for bit by starting it with -Dparticles.seed=&lt;seed&gt; (with the same thread count).
+ * Without that property a seed is picked at start, getSeed() tells which one it was.
+ *
+ * The returned generators are not thread safe, each one must only be used by the thread that owns it.
+ */
+public final class RandomService {
+    private static final long                    SEED    = initSeed();
+    private static final long                    GOLDEN  = 0x9E3779B97F4A7C15L;
+    private static final Map<String, AtomicLong> STREAMS = new ConcurrentHashMap<>();
+
+
+    // ******************** Constructors **************************************
+    private RandomService() {}
+
+
+    // ******************** Methods *******************************************
+    public static long getSeed() { return SEED; }
+
+    /**
+     * Returns a new generator for the given name. Every call with the same name gets the next stream of that
+     * name, so two instances of a simulation don't produce the same particles but still replay identically
+     * as long as they are created in the same order.
+     */
+    public static SplittableRandom stream(final String NAME) {
+        long index = STREAMS.computeIfAbsent(NAME, name -> new AtomicLong()).getAndIncrement();
+        return stream(NAME, index);
+    }
+
+    /**
+     * Returns the generator number INDEX of the given name, e.g. one per chunk or worker of a parallel step.
+     * The result only depends on the seed, the name and the index.
+     */
+    public static SplittableRandom stream(final String NAME, final long INDEX) {
+        return new SplittableRandom(mix64(SEED ^ mix64(NAME.hashCode() + GOLDEN * (INDEX + 1))));
+    }
+
+    /**
+     * Normal distributed value with mean 0 and standard deviation 1 (Marsaglia polar method), SplittableRandom
+     * doesn't offer nextGaussian() in Java 8.
+     */
+    public static double nextGaussian(final SplittableRandom RND) {
+        double v1, v2, s;
+        do {
+            v1 = 2 * RND.nextDouble() - 1;
+            v2 = 2 * RND.nextDouble() - 1;
+            s  = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        return v1 * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+    private static long initSeed() {
+        Long seed = Long.getLong("particles.seed");
+        return null == seed ? mix64(System.nanoTime() ^ System.currentTimeMillis()) : seed;
+    }
+
+    private static long mix64(final long VALUE) {
+        long z = VALUE;
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
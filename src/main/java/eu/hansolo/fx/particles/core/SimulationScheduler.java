@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Runs the StepKernel over fixed size chunks of a ParticleStore on its own fork/join pool, so the simulation
+ * doesn't compete with other users of the common pool. All force sources are handled inside a chunk, which
+ * means there is exactly one fork and one join per frame.
+ *
+ * Every chunk compacts its own live particles to the front of the chunk, the chunks are then moved together
+ * on the calling thread. The timings of both phases are kept for the last step.
+ *
+ * Like the StepKernel it reads from a source store and writes to a target store, which may be the same.
+ */
+public class SimulationScheduler {
+
+    private final ForkJoinPool pool;
+    private final int threadCount;
+    private final int chunkSize;
+    private final StepKernel kernel = new StepKernel();
+
+    private int chunkCount;
+    private int[] chunkLive = new int[0];
+    private long[] chunkNanos = new long[0];
+
+    private long stepNanos;
+    private long compactNanos;
+    private long busyNanos;
+
+    public SimulationScheduler(int threadCount, int chunkSize) {
+
+        this.threadCount = Math.max(1, threadCount);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pool = new ForkJoinPool(this.threadCount, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("particle-simulation-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            FrameProfiler.trackThread(thread);
+            return thread;
+        }, null, false);
+
+    }
+
+    /**
+     * Kernel that has to be prepared with the current forces before calling step()
+     */
+    public StepKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Advance all particles of the store by one frame and remove the dead ones.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore store) {
+        return step(store, store);
+    }
+
+    /**
+     * Advance all particles of the source by one frame and write the ones that are still alive to the target.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore source, ParticleStore target) {
+
+        long start = System.nanoTime();
+
+        // forces, integration and life span, chunk by chunk in parallel
+        chunkCount = (source.getHighWater() + chunkSize - 1) / chunkSize;
+        if (chunkLive.length < chunkCount) {
+            chunkLive = new int[chunkCount];
+            chunkNanos = new long[chunkCount];
+        }
+        target.ensureCapacity(source.getHighWater());
+        if (chunkCount > 0) {
+            pool.invoke(new ChunkTask(source, target, 0, chunkCount));
+        }
+
+        long stepped = System.nanoTime();
+
+        // move the live particles of all chunks together
+        int write = 0;
+        long busy = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+
+            int from = chunk * chunkSize;
+            int live = chunkLive[chunk];
+
+            if (from != write && live > 0) {
+                System.arraycopy(target.x, from, target.x, write, live);
+                System.arraycopy(target.y, from, target.y, write, live);
+                System.arraycopy(target.vx, from, target.vx, write, live);
+                System.arraycopy(target.vy, from, target.vy, write, live);
+                System.arraycopy(target.lifeSpan, from, target.lifeSpan, write, live);
+            }
+
+            write += live;
+            busy += chunkNanos[chunk];
+        }
+        target.compacted(write);
+
+        long end = System.nanoTime();
+
+        stepNanos = stepped - start;
+        compactNanos = end - stepped;
+        busyNanos = busy;
+
+        return write;
+
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Number of chunks of the last step
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Wall time of the parallel phase (forces, integration, life span) of the last step
+     */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /**
+     * Wall time of moving the chunks together after the last step
+     */
+    public long getCompactNanos() {
+        return compactNanos;
+    }
+
+    /**
+     * Sum of the time all workers spent in chunks during the last step
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Busy time of the workers relative to the time they had, 1.0 means perfect scaling.
+     * If this drops while adding threads, the step is limited by memory bandwidth or by too few chunks.
+     */
+    public double getEfficiency() {
+        return stepNanos == 0 ? 0 : (double) busyNanos / (stepNanos * (double) threadCount);
+    }
+
+    /**
+     * Splits the chunk range in halves until a single chunk is left
+     */
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final ParticleStore source;
+        final ParticleStore target;
+        final int fromChunk;
+        final int toChunk;
+
+        ChunkTask(ParticleStore source, ParticleStore target, int fromChunk, int toChunk) {
+            this.source = source;
+            this.target = target;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new ChunkTask(source, target, fromChunk, middle), new ChunkTask(source, target, middle, toChunk));
+                return;
+            }
+
+            long start = System.nanoTime();
+
+            int from = fromChunk * chunkSize;
+            int to = Math.min(from + chunkSize, source.getHighWater());
+            chunkLive[fromChunk] = kernel.step(source, target, from, to, from) - from;
+
+            chunkNanos[fromChunk] = System.nanoTime() - start;
+
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Simulation of the Smoke effect without any JavaFX dependency. While running new particles are emitted
+ * with the emission rate per second as long as there are less than noOfParticles. After stop no new
+ * particles are emitted and the existing ones fade out. New particles start below the bottom border,
+ * HALF_HEIGHT is half the height of the particle image.
+ *
+ * The particles live in a pre-sized pool of parallel arrays, the first getCount() entries are alive. A
+ * dying particle is replaced by the last live one and its slot is reused by the next emitted particle,
+ * so neither emitting nor removing a particle allocates or moves more than one entry.
+ *
+ * update() leaves the state that has to be drawn in x, y, vX, vY, size and opacity.
+ */
+public class SmokeSimulation {
+    public  static final    double                 DEFAULT_RATE    = 50; // new particles per second
+    private        final    SplittableRandom       rnd             = RandomService.stream("SmokeSimulation");
+    public         final    double[]               x;
+    public         final    double[]               y;
+    public         final    double[]               vX;
+    public         final    double[]               vY;
+    public         final    double[]               size;
+    public         final    double[]               opacity;
+    private        final    double[]               life;
+    private        final    double[]               remainingLife;
+    private        final    int                    noOfParticles;
+    private        final    double                 halfHeight;
+    private volatile        double                 width;
+    private volatile        double                 height;
+    private volatile        boolean                running;
+    private volatile        double                 emissionRate;
+    private                 double                 emissionBudget;
+    private                 int                    count;
+    private                 int                    emitted;
+    private                 int                    died;
+
+
+    // ******************** Constructors **************************************
+    public SmokeSimulation(final int NO_OF_PARTICLES, final double HALF_HEIGHT) {
+        noOfParticles = NO_OF_PARTICLES;
+        halfHeight    = HALF_HEIGHT;
+        emissionRate  = DEFAULT_RATE;
+        x             = new double[NO_OF_PARTICLES];
+        y             = new double[NO_OF_PARTICLES];
+        vX            = new double[NO_OF_PARTICLES];
+        vY            = new double[NO_OF_PARTICLES];
+        size          = new double[NO_OF_PARTICLES];
+        opacity       = new double[NO_OF_PARTICLES];
+        life          = new double[NO_OF_PARTICLES];
+        remainingLife = new double[NO_OF_PARTICLES];
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getNoOfParticles() { return noOfParticles; }
+
+    /**
+     * Number of particles that are alive
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Number of particles emitted in the last update
+     */
+    public int getEmitted() { return emitted; }
+
+    /**
+     * Number of particles that died in the last update
+     */
+    public int getDied() { return died; }
+
+    public void setSize(final double WIDTH, final double HEIGHT) {
+        width  = WIDTH;
+        height = HEIGHT;
+    }
+
+    /**
+     * New particles per second while running, the steps are expected to run at
+     * FixedStepLoop.DEFAULT_STEPS_PER_SECOND
+     */
+    public double getEmissionRate() { return emissionRate; }
+    public void setEmissionRate(final double RATE) { emissionRate = Math.max(0, RATE); }
+
+    public boolean isRunning() { return running; }
+    public void setRunning(final boolean RUNNING) { running = RUNNING; }
+
+    /**
+     * Move all particles by one step, remove the dead ones and emit the new ones
+     *
+     * @return number of entries in x, y, vX, vY, size and opacity
+     */
+    public int update() {
+        emitted = 0;
+        died    = 0;
+
+        int i = 0;
+        while (i < count) {
+            opacity[i] = remainingLife[i] / life[i] * 0.5;
+
+            //remainingLife[i]--;
+            remainingLife[i] *= 0.98;
+            //size[i] *= 0.99;
+            x[i] += vX[i];
+            y[i] += vY[i];
+
+            // remove dead particles, the last one takes the slot and is looked at next
+            if (remainingLife[i] < 0 || size[i] < 0 || opacity[i] < 0.01) {
+                count--;
+                died++;
+                move(count, i);
+            } else {
+                i++;
+            }
+        }
+
+        // emission rate controller, the budget grows by one step and what can't be spent because the pool
+        // is full is dropped, so steps that didn't happen (paused, faded out) never cause a burst
+        if (running) {
+            emissionBudget += emissionRate / FixedStepLoop.DEFAULT_STEPS_PER_SECOND;
+            while (emissionBudget >= 1 && count < noOfParticles) {
+                initParticle(count++);
+                emitted++;
+                emissionBudget--;
+            }
+            emissionBudget = Math.min(emissionBudget, 1);
+        } else {
+            emissionBudget = 0;
+        }
+        return count;
+    }
+
+    private void initParticle(final int INDEX) {
+        // Position
+        x[INDEX] = rnd.nextDouble() * width;
+        y[INDEX] = height + halfHeight;
+
+        // Size
+        size[INDEX] = (rnd.nextDouble() * 1) + 0.5;
+
+        // Velocity
+        vX[INDEX] = (rnd.nextDouble() * 0.5) - 0.25;
+        vY[INDEX] = -(rnd.nextDouble() * 3);
+
+        // Opacity
+        opacity[INDEX] = 0.5;
+
+        // Life
+        life[INDEX]          = (rnd.nextDouble() * 20) + 40;
+        remainingLife[INDEX] = life[INDEX];
+    }
+
+    private void move(final int FROM, final int TO) {
+        x[TO]             = x[FROM];
+        y[TO]             = y[FROM];
+        vX[TO]            = vX[FROM];
+        vY[TO]            = vY[FROM];
+        size[TO]          = size[FROM];
+        opacity[TO]       = opacity[FROM];
+        life[TO]          = life[FROM];
+        remainingLife[TO] = remainingLife[FROM];
+    }
+}
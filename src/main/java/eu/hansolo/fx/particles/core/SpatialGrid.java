@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Uniform grid for neighbour searches. With the cell size equal to the search distance all neighbours
+ * of a particle are in its own or one of the 8 surrounding cells. The particles are sorted into the
+ * cells by a counting sort, so building the grid is O(n) and allocates nothing once it has grown.
+ */
+public class SpatialGrid {
+    private final double cellSize;
+    private final int    cols;
+    private final int    rows;
+    private final int[]  cellStart;  // particles of cell c are sorted[cellStart[c]] ... sorted[cellStart[c + 1] - 1]
+    private       int[]  cellOf;
+    private       int[]  sorted;
+
+
+    // ******************** Constructors **************************************
+    public SpatialGrid(final double WIDTH, final double HEIGHT, final double CELL_SIZE) {
+        cellSize  = CELL_SIZE;
+        cols      = Math.max(1, (int) Math.ceil(WIDTH / CELL_SIZE));
+        rows      = Math.max(1, (int) Math.ceil(HEIGHT / CELL_SIZE));
+        cellStart = new int[cols * rows + 1];
+        cellOf    = new int[0];
+        sorted    = new int[0];
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Sort the first COUNT particles into the cells, positions outside of the grid go to the border cells
+     */
+    public void build(final double[] X, final double[] Y, final int COUNT) {
+        if (cellOf.length < COUNT) {
+            cellOf = new int[COUNT];
+            sorted = new int[COUNT];
+        }
+        Arrays.fill(cellStart, 0);
+        for (int i = 0 ; i < COUNT ; i++) {
+            int col   = clamp((int) (X[i] / cellSize), cols);
+            int row   = clamp((int) (Y[i] / cellSize), rows);
+            int cell  = row * cols + col;
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int cell = 0 ; cell < cols * rows ; cell++) { cellStart[cell + 1] += cellStart[cell]; }
+
+        // cellStart[c + 1] is the end of cell c, fill each cell from its end backwards
+        for (int i = COUNT - 1 ; i >= 0 ; i--) {
+            sorted[--cellStart[cellOf[i] + 1]] = i;
+        }
+        // now cellStart[c + 1] is the start of cell c, shift back
+        System.arraycopy(cellStart, 1, cellStart, 0, cols * rows);
+        cellStart[cols * rows] = COUNT;
+    }
+
+    /**
+     * Calls the consumer once for every pair of particles that are closer than MAX_DISTANCE (which must not be
+     * bigger than the cell size). Only the own cell and the 4 cells right and below are searched, the other
+     * neighbours visit this cell themselves. Distances are compared squared, there is no sqrt per pair.
+     */
+    public void forEachPair(final double[] X, final double[] Y, final double MAX_DISTANCE, final PairConsumer CONSUMER) {
+        final double MAX_DISTANCE_SQUARED = MAX_DISTANCE * MAX_DISTANCE;
+        for (int row = 0 ; row < rows ; row++) {
+            for (int col = 0 ; col < cols ; col++) {
+                int cell = row * cols + col;
+                for (int a = cellStart[cell] ; a < cellStart[cell + 1] ; a++) {
+                    int i = sorted[a];
+                    // own cell, every pair once
+                    visit(i, a + 1, cellStart[cell + 1], X, Y, MAX_DISTANCE_SQUARED, CONSUMER);
+                    // right, below left, below, below right
+                    if (col + 1 < cols) { visit(i, cell + 1, X, Y, MAX_DISTANCE_SQUARED, CONSUMER); }
+                    if (row + 1 < rows) {
+                        int below = cell + cols;
+                        if (col > 0)        { visit(i, below - 1, X, Y, MAX_DISTANCE_SQUARED, CONSUMER); }
+                        visit(i, below, X, Y, MAX_DISTANCE_SQUARED, CONSUMER);
+                        if (col + 1 < cols) { visit(i, below + 1, X, Y, MAX_DISTANCE_SQUARED, CONSUMER); }
+                    }
+                }
+            }
+        }
+    }
+
+    private void visit(final int I, final int CELL, final double[] X, final double[] Y, final double MAX_DISTANCE_SQUARED, final PairConsumer CONSUMER) {
+        visit(I, cellStart[CELL], cellStart[CELL + 1], X, Y, MAX_DISTANCE_SQUARED, CONSUMER);
+    }
+    private void visit(final int I, final int FROM, final int TO, final double[] X, final double[] Y, final double MAX_DISTANCE_SQUARED, final PairConsumer CONSUMER) {
+        double x = X[I];
+        double y = Y[I];
+        for (int b = FROM ; b < TO ; b++) {
+            int    j               = sorted[b];
+            double dx              = x - X[j];
+            double dy              = y - Y[j];
+            double distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared < MAX_DISTANCE_SQUARED) { CONSUMER.accept(I, j, dx, dy, distanceSquared); }
+        }
+    }
+
+    private static int clamp(final int VALUE, final int COUNT) {
+        if (VALUE < 0) return 0;
+        if (VALUE >= COUNT) return COUNT - 1;
+        return VALUE;
+    }
+
+
+    // ******************** InnerClasses **************************************
+    public interface PairConsumer {
+        /**
+         * @param I                particle index
+         * @param J                other particle index
+         * @param DX               x[I] - x[J]
+         * @param DY               y[I] - y[J]
+         * @param DISTANCE_SQUARED dx * dx + dy * dy
+         */
+        void accept(int I, int J, double DX, double DY, double DISTANCE_SQUARED);
+    }
+}
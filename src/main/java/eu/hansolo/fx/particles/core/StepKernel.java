@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Fused simulation step for a ParticleStore. Gravity, all force sources, integration, speed limit and
+ * life span decay are applied chunk by chunk, so a chunk is loaded into the cache once per frame no
+ * matter how many force sources there are. Dead particles are compacted in the same pass, which keeps
+ * the live particles dense in [0, size) after every step.
+ *
+ * The step reads the particles from a source store and writes the survivors to a target store. Source
+ * and target may be the same store, otherwise the source is only read and can be drawn at the same time.
+ */
+public class StepKernel {
+
+    /**
+     * Number of particles that are processed together, small enough for all arrays of a chunk to stay in the cache
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    private double gravityX;
+    private double gravityY;
+    private double maxSpeed;
+
+    private ForceSource[] forceSources = new ForceSource[8];
+    private int forceSourceCount;
+
+    /**
+     * Take over the parameters for the next step(s)
+     */
+    public void prepare(double gravityX, double gravityY, double maxSpeed, List<? extends ForceSource> attractors, List<? extends ForceSource> repellers) {
+
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+        this.maxSpeed = maxSpeed;
+
+        int count = attractors.size() + repellers.size();
+        if (forceSources.length < count) {
+            forceSources = new ForceSource[count];
+        }
+
+        forceSourceCount = 0;
+        for (ForceSource forceSource : attractors) {
+            forceSources[forceSourceCount++] = forceSource;
+        }
+        for (ForceSource forceSource : repellers) {
+            forceSources[forceSourceCount++] = forceSource;
+        }
+
+    }
+
+    /**
+     * Advance all particles of the store by one frame and remove the dead ones.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore store) {
+        return step(store, store);
+    }
+
+    /**
+     * Advance all particles of the source by one frame and write the ones that are still alive to the target.
+     *
+     * @return number of live particles
+     */
+    public int step(ParticleStore source, ParticleStore target) {
+
+        int highWater = source.getHighWater();
+        int write = 0;
+
+        target.ensureCapacity(highWater);
+
+        for (int from = 0; from < highWater; from += CHUNK_SIZE) {
+            write = step(source, target, from, Math.min(from + CHUNK_SIZE, highWater), write);
+        }
+
+        target.compacted(write);
+
+        return write;
+
+    }
+
+    /**
+     * Advance the particles in [from, to) of the source and write the ones that are still alive to the slots of
+     * the target starting at write. The target needs room for all slots of the source, its acceleration arrays
+     * are used as scratch space. If source and target are the same store, the write index never overtakes
+     * the read index, so compacting in place is safe.
+     *
+     * @return the write index after the chunk
+     */
+    int step(ParticleStore source, ParticleStore target, int from, int to, int write) {
+
+        double[] x = source.x;
+        double[] y = source.y;
+        double[] vx = source.vx;
+        double[] vy = source.vy;
+        double[] lifeSpan = source.lifeSpan;
+
+        double[] ax = target.ax;
+        double[] ay = target.ay;
+
+        double[] targetX = target.x;
+        double[] targetY = target.y;
+        double[] targetVx = target.vx;
+        double[] targetVy = target.vy;
+        double[] targetLifeSpan = target.lifeSpan;
+
+        // apply force: gravity, this also clears the acceleration of the last step
+        Arrays.fill(ax, from, to, gravityX);
+        Arrays.fill(ay, from, to, gravityY);
+
+        // apply force: attractors and repellers
+        for (int s = 0; s < forceSourceCount; s++) {
+            forceSources[s].accumulate(x, y, ax, ay, from, to);
+        }
+
+        double maxSpeedSquared = maxSpeed * maxSpeed;
+
+        for (int i = from; i < to; i++) {
+
+            double life = lifeSpan[i];
+
+            // released slot
+            if (life <= 0) {
+                continue;
+            }
+
+            // set velocity depending on acceleration
+            double velocityX = vx[i] + ax[i];
+            double velocityY = vy[i] + ay[i];
+
+            // limit velocity to max speed
+            double speedSquared = velocityX * velocityX + velocityY * velocityY;
+            if (speedSquared > maxSpeedSquared) {
+                double factor = maxSpeed / Math.sqrt(speedSquared);
+                velocityX *= factor;
+                velocityY *= factor;
+            }
+
+            // life span of particle
+            life--;
+            if (life <= 0) {
+                continue;
+            }
+
+            // change location depending on velocity and compact
+            targetX[write] = x[i] + velocityX;
+            targetY[write] = y[i] + velocityY;
+            targetVx[write] = velocityX;
+            targetVy[write] = velocityY;
+            targetLifeSpan[write] = life;
+
+            write++;
+        }
+
+        return write;
+
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Software rasterizer that draws the sprites of a frame on all cores. The target is split into square tiles of
+ * TILE_SIZE pixels and every sprite is binned into the tiles it overlaps. The tiles are then rasterized in
+ * parallel on an own fork/join pool: a worker owns all pixels of its tile, so the shared ARGB buffer is written
+ * without locks and without two threads ever touching the same pixel.
+ *
+ * Sprites are sub-rectangles of premultiplied ARGB int arrays. They are blended source over with their opacity,
+ * in the order they were added, which is kept inside of each tile.
+ */
+public class TileRasterizer {
+    public  static final int          TILE_SIZE = 64;
+    private        final ForkJoinPool pool;
+    private        final int          threadCount;
+    // sprites of the current frame
+    private              int          count;
+    private              int[][]      source;
+    private              int[]        scanline;
+    private              int[]        sourceX;
+    private              int[]        sourceY;
+    private              int[]        width;
+    private              int[]        height;
+    private              int[]        x;
+    private              int[]        y;
+    private              int[]        opacity;
+    // sprites of tile t are binned[tileStart[t]] ... binned[tileStart[t + 1] - 1]
+    private              int[]        tileStart;
+    private              int[]        binned;
+    private              int[]        target;
+    private              int          targetWidth;
+    private              int          targetHeight;
+    private              int          columns;
+    private              int          background;
+    private              long         binNanos;
+    private              long         rasterizeNanos;
+
+
+    // ******************** Constructors **************************************
+    public TileRasterizer(final int THREAD_COUNT) {
+        threadCount = Math.max(1, THREAD_COUNT);
+        pool        = new ForkJoinPool(threadCount, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("particle-rasterizer-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            FrameProfiler.trackThread(thread);
+            return thread;
+        }, null, false);
+        source      = new int[0][];
+        scanline    = new int[0];
+        sourceX     = new int[0];
+        sourceY     = new int[0];
+        width       = new int[0];
+        height      = new int[0];
+        x           = new int[0];
+        y           = new int[0];
+        opacity     = new int[0];
+        tileStart   = new int[1];
+        binned      = new int[0];
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Remove all sprites, has to be called at the beginning of every frame
+     */
+    public void clear() { count = 0; }
+
+    /**
+     * Number of sprites of the current frame
+     */
+    public int size() { return count; }
+
+    /**
+     * Add a sprite to the current frame
+     *
+     * @param PIXELS premultiplied ARGB pixels that contain the sprite
+     * @param SCANLINE number of pixels per row in PIXELS
+     * @param SOURCE_X left border of the sprite in PIXELS
+     * @param SOURCE_Y top border of the sprite in PIXELS
+     * @param WIDTH width of the sprite
+     * @param HEIGHT height of the sprite
+     * @param X left border in the target
+     * @param Y top border in the target
+     * @param OPACITY 0.0 (invisible) to 1.0
+     */
+    public void add(final int[] PIXELS, final int SCANLINE, final int SOURCE_X, final int SOURCE_Y, final int WIDTH, final int HEIGHT, final int X, final int Y, final double OPACITY) {
+        int fixed = (int) (Math.min(1.0, OPACITY) * 256);
+        if (fixed <= 0) return;
+        if (count == x.length) { grow(); }
+        source[count]   = PIXELS;
+        scanline[count] = SCANLINE;
+        sourceX[count]  = SOURCE_X;
+        sourceY[count]  = SOURCE_Y;
+        width[count]    = WIDTH;
+        height[count]   = HEIGHT;
+        x[count]        = X;
+        y[count]        = Y;
+        opacity[count]  = fixed;
+        count++;
+    }
+
+    /**
+     * Fill the TARGET, which has TARGET_WIDTH * TARGET_HEIGHT premultiplied ARGB pixels, with the BACKGROUND
+     * and draw all sprites of the current frame on top of it
+     */
+    public void rasterize(final int[] TARGET, final int TARGET_WIDTH, final int TARGET_HEIGHT, final int BACKGROUND) {
+        long start   = System.nanoTime();
+        target       = TARGET;
+        targetWidth  = TARGET_WIDTH;
+        targetHeight = TARGET_HEIGHT;
+        background   = BACKGROUND;
+        columns      = (TARGET_WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+        int rows     = (TARGET_HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles    = columns * rows;
+        bin(tiles);
+        long binEnd  = System.nanoTime();
+        if (tiles > 0) { pool.invoke(new TileTask(0, tiles)); }
+        target         = null;
+        binNanos       = binEnd - start;
+        rasterizeNanos = System.nanoTime() - binEnd;
+    }
+
+    /**
+     * Source over for premultiplied ARGB, the SOURCE is scaled by ALPHA / 256 first
+     */
+    public static int blend(final int SOURCE, final int DESTINATION, final int ALPHA) {
+        int sa = ((SOURCE >>> 24) * ALPHA) >> 8;
+        if (0 == sa) return DESTINATION;
+        int sr = (((SOURCE >> 16) & 0xFF) * ALPHA) >> 8;
+        int sg = (((SOURCE >> 8) & 0xFF) * ALPHA) >> 8;
+        int sb = ((SOURCE & 0xFF) * ALPHA) >> 8;
+        if (255 == sa) return 0xFF000000 | sr << 16 | sg << 8 | sb;
+        int inverse = 255 - sa;
+        int da      = div255((DESTINATION >>> 24) * inverse) + sa;
+        int dr      = div255(((DESTINATION >> 16) & 0xFF) * inverse) + sr;
+        int dg      = div255(((DESTINATION >> 8) & 0xFF) * inverse) + sg;
+        int db      = div255((DESTINATION & 0xFF) * inverse) + sb;
+        return da << 24 | dr << 16 | dg << 8 | db;
+    }
+
+    /**
+     * Wall time of binning the sprites of the last frame, runs on the calling thread
+     */
+    public long getBinNanos() { return binNanos; }
+
+    /**
+     * Wall time of rasterizing the tiles of the last frame
+     */
+    public long getRasterizeNanos() { return rasterizeNanos; }
+
+    public int getThreadCount() { return threadCount; }
+
+    public void shutdown() { pool.shutdownNow(); }
+
+    private void grow() {
+        int capacity = Math.max(64, 2 * count);
+        source   = Arrays.copyOf(source, capacity);
+        scanline = Arrays.copyOf(scanline, capacity);
+        sourceX  = Arrays.copyOf(sourceX, capacity);
+        sourceY  = Arrays.copyOf(sourceY, capacity);
+        width    = Arrays.copyOf(width, capacity);
+        height   = Arrays.copyOf(height, capacity);
+        x        = Arrays.copyOf(x, capacity);
+        y        = Arrays.copyOf(y, capacity);
+        opacity  = Arrays.copyOf(opacity, capacity);
+    }
+
+    /**
+     * Counting sort of the sprites into the tiles they overlap, a sprite can be in several tiles
+     */
+    private void bin(final int TILES) {
+        if (tileStart.length < TILES + 1) { tileStart = new int[TILES + 1]; }
+        Arrays.fill(tileStart, 0, TILES + 1, 0);
+
+        // count the sprites per tile, shifted by one
+        int total = 0;
+        for (int i = 0 ; i < count ; i++) {
+            int left   = Math.max(x[i], 0) / TILE_SIZE;
+            int right  = (Math.min(x[i] + width[i], targetWidth) - 1) / TILE_SIZE;
+            int top    = Math.max(y[i], 0) / TILE_SIZE;
+            int bottom = (Math.min(y[i] + height[i], targetHeight) - 1) / TILE_SIZE;
+            if (x[i] + width[i] <= 0 || y[i] + height[i] <= 0 || left > right || top > bottom) continue;
+            for (int row = top ; row <= bottom ; row++) {
+                for (int column = left ; column <= right ; column++) { tileStart[row * columns + column + 1]++; }
+            }
+            total += (bottom - top + 1) * (right - left + 1);
+        }
+        for (int tile = 0 ; tile < TILES ; tile++) { tileStart[tile + 1] += tileStart[tile]; }
+        if (binned.length < total) { binned = new int[total]; }
+
+        // second pass in the same order, so every tile keeps the order of the sprites
+        int[] next = Arrays.copyOf(tileStart, TILES);
+        for (int i = 0 ; i < count ; i++) {
+            int left   = Math.max(x[i], 0) / TILE_SIZE;
+            int right  = (Math.min(x[i] + width[i], targetWidth) - 1) / TILE_SIZE;
+            int top    = Math.max(y[i], 0) / TILE_SIZE;
+            int bottom = (Math.min(y[i] + height[i], targetHeight) - 1) / TILE_SIZE;
+            if (x[i] + width[i] <= 0 || y[i] + height[i] <= 0 || left > right || top > bottom) continue;
+            for (int row = top ; row <= bottom ; row++) {
+                for (int column = left ; column <= right ; column++) { binned[next[row * columns + column]++] = i; }
+            }
+        }
+    }
+
+    /**
+     * Fill one tile with the background and blend its sprites, only pixels of the tile are written
+     */
+    private void rasterizeTile(final int TILE) {
+        int tileLeft   = (TILE % columns) * TILE_SIZE;
+        int tileTop    = (TILE / columns) * TILE_SIZE;
+        int tileRight  = Math.min(tileLeft + TILE_SIZE, targetWidth);
+        int tileBottom = Math.min(tileTop + TILE_SIZE, targetHeight);
+        for (int row = tileTop ; row < tileBottom ; row++) {
+            Arrays.fill(target, row * targetWidth + tileLeft, row * targetWidth + tileRight, background);
+        }
+
+        for (int k = tileStart[TILE] ; k < tileStart[TILE + 1] ; k++) {
+            int   i      = binned[k];
+            int   top    = Math.max(y[i], tileTop);
+            int   bottom = Math.min(y[i] + height[i], tileBottom);
+            int   left   = Math.max(x[i], tileLeft);
+            int   right  = Math.min(x[i] + width[i], tileRight);
+            int[] pixels = source[i];
+            int   alpha  = opacity[i];
+            for (int row = top ; row < bottom ; row++) {
+                int read  = (sourceY[i] + row - y[i]) * scanline[i] + sourceX[i] + left - x[i];
+                int write = row * targetWidth + left;
+                for (int column = left ; column < right ; column++, read++, write++) {
+                    int argb = pixels[read];
+                    if (0 != argb) { target[write] = blend(argb, target[write], alpha); }
+                }
+            }
+        }
+    }
+
+    /**
+     * VALUE / 255 for VALUE in [0, 255 * 255], rounded
+     */
+    private static int div255(final int VALUE) {
+        int v = VALUE + 128;
+        return (v + (v >> 8)) >> 8;
+    }
+
+
+    // ******************** InnerClasses **************************************
+    /**
+     * Splits the tile range in halves until a single tile is left
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private        final int  fromTile;
+        private        final int  toTile;
+
+
+        // ******************** Constructors **********************************
+        public TileTask(final int FROM_TILE, final int TO_TILE) {
+            fromTile = FROM_TILE;
+            toTile   = TO_TILE;
+        }
+
+
+        // ******************** Methods ***************************************
+        @Override protected void compute() {
+            if (toTile - fromTile > 1) {
+                int middle = (fromTile + toTile) >>> 1;
+                invokeAll(new TileTask(fromTile, middle), new TileTask(middle, toTile));
+                return;
+            }
+            rasterizeTile(fromTile);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+/**
+ * Lock free handoff of snapshots from one producer (the simulation thread) to one consumer (the FX thread).
+ * The producer writes into the back buffer and publishes it, the consumer picks up the latest published
+ * buffer as its front buffer. The third buffer sits in the middle, so neither side ever waits for the
+ * other one and the consumer never sees a buffer that is being written.
+ */
+public class TripleBuffer<T> {
+    private static final int           INDEX_MASK = 0b011;
+    private static final int           DIRTY      = 0b100;
+    private        final T[]           buffers;
+    private        final AtomicInteger middle;
+    private              int           back;      // only touched by the producer
+    private              int           published; // only touched by the producer
+    private              int           front;     // only touched by the consumer
+
+
+    // ******************** Constructors **************************************
+    @SuppressWarnings("unchecked")
+    public TripleBuffer(final Supplier<T> FACTORY) {
+        buffers   = (T[]) new Object[] { FACTORY.get(), FACTORY.get(), FACTORY.get() };
+        back      = 0;
+        middle    = new AtomicInteger(1);
+        front     = 2;
+        published = 2;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Producer side: the buffer to write the next snapshot into
+     */
+    public T getBack() { return buffers[back]; }
+
+    /**
+     * Producer side: the snapshot that was published last. It might be read by the consumer at the same time,
+     * so the producer must only read it.
+     */
+    public T getPublished() { return buffers[published]; }
+
+    /**
+     * Producer side: hand the back buffer over to the consumer and get a new back buffer
+     */
+    public void publish() {
+        published = back;
+        back      = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+    }
+
+    /**
+     * Consumer side: take over the latest published snapshot if there is a new one
+     *
+     * @return true if the front buffer changed
+     */
+    public boolean update() {
+        if ((middle.get() & DIRTY) == 0) return false;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return true;
+    }
+
+    /**
+     * Consumer side: the snapshot to draw
+     */
+    public T getFront() { return buffers[front]; }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+import java.util.Arrays;
+
+
+/**
+ * Barnes-Hut quadtree for the gravitational acceleration of n bodies in O(n log n).
+ * A node that looks smaller than the opening angle theta from a body (node size / distance < theta)
+ * acts on the body as a single mass in its center of mass, otherwise its children are visited.
+ * theta = 0 is the exact pairwise sum, 0.5 is a common tradeoff, bigger values are faster and less exact.
+ *
+ * The nodes live in flat arrays that are reused from build to build. Bodies that are closer than the
+ * maximum depth can separate share a leaf and are linked through next[].
+ */
+public class BarnesHutTree {
+    private static final int      EMPTY     = -1;
+    private static final int      MAX_DEPTH = 48;
+    private              double   theta;
+    private              double   softening;
+    // nodes
+    private              double[] centerX;
+    private              double[] centerY;
+    private              double[] halfSize;
+    private              double[] mass;
+    private              double[] massX;     // sum of mass * x, center of mass after build
+    private              double[] massY;     // sum of mass * y, center of mass after build
+    private              int[]    firstChild;
+    private              int[]    firstBody;
+    private              int      nodeCount;
+    // bodies of the last build
+    private              double[] bodyX;
+    private              double[] bodyY;
+    private              double[] bodyMass;
+    private              int[]    next;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param THETA     opening angle
+     * @param SOFTENING distance [m] that is added to every distance to avoid infinite forces in close encounters
+     */
+    public BarnesHutTree(final double THETA, final double SOFTENING) {
+        theta     = THETA;
+        softening = SOFTENING;
+        allocateNodes(1024);
+        next      = new int[0];
+    }
+
+
+    // ******************** Methods *******************************************
+    public double getTheta() { return theta; }
+    public void setTheta(final double THETA) { theta = THETA; }
+
+    public double getSoftening() { return softening; }
+    public void setSoftening(final double SOFTENING) { softening = SOFTENING; }
+
+    public int getNodeCount() { return nodeCount; }
+
+    /**
+     * Insert all bodies, must be called whenever the positions changed before calling accelerate()
+     */
+    public void build(final double[] X, final double[] Y, final double[] MASS, final int COUNT) {
+        bodyX    = X;
+        bodyY    = Y;
+        bodyMass = MASS;
+        if (next.length < COUNT) { next = new int[COUNT]; }
+        if (centerX.length < 4 * COUNT + 1) { allocateNodes(4 * COUNT + 1); }
+
+        // square around all bodies
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0 ; i < COUNT ; i++) {
+            minX = Math.min(minX, X[i]);
+            minY = Math.min(minY, Y[i]);
+            maxX = Math.max(maxX, X[i]);
+            maxY = Math.max(maxY, Y[i]);
+        }
+        double half = Math.max(maxX - minX, maxY - minY) * 0.5;
+
+        nodeCount = 0;
+        createNode((minX + maxX) * 0.5, (minY + maxY) * 0.5, half > 0 ? half * 1.0001 : 1);
+
+        for (int i = 0 ; i < COUNT ; i++) { insert(i, X[i], Y[i], MASS[i]); }
+
+        for (int n = 0 ; n < nodeCount ; n++) {
+            if (mass[n] > 0) {
+                massX[n] /= mass[n];
+                massY[n] /= mass[n];
+            }
+        }
+    }
+
+    /**
+     * Set the acceleration of the bodies in [FROM, TO) of the last build caused by all bodies in the tree.
+     * The tree is only read, so disjoint ranges can be calculated in parallel.
+     */
+    public void accelerate(final double G, final double[] A_X, final double[] A_Y, final int FROM, final int TO) {
+        accelerate(G, A_X, A_Y, null, FROM, TO);
+    }
+    /**
+     * Like accelerate() but also sets the (softened) gravitational potential [J/kg] of each body if POTENTIAL is not null
+     */
+    public void accelerate(final double G, final double[] A_X, final double[] A_Y, final double[] POTENTIAL, final int FROM, final int TO) {
+        final double[] X                 = bodyX;
+        final double[] Y                 = bodyY;
+        final double   THETA_SQUARED     = theta * theta;
+        final double   SOFTENING_SQUARED = softening * softening;
+        final int[]    STACK             = new int[3 * MAX_DEPTH + 4];
+        for (int i = FROM ; i < TO ; i++) {
+            double x   = X[i];
+            double y   = Y[i];
+            double aX  = 0;
+            double aY  = 0;
+            double phi = 0;
+            int    top = 0;
+            STACK[top++] = 0;
+            while (top > 0) {
+                int n = STACK[--top];
+                if (mass[n] == 0) continue;
+                if (firstChild[n] == EMPTY) {
+                    // leaf, direct sum over its bodies
+                    for (int b = firstBody[n] ; b != EMPTY ; b = next[b]) {
+                        if (b == i) continue;
+                        double dx = X[b] - x;
+                        double dy = Y[b] - y;
+                        double d2 = dx * dx + dy * dy + SOFTENING_SQUARED;
+                        double p  = G * bodyMass[b] / Math.sqrt(d2);
+                        double f  = p / d2;
+                        aX  += f * dx;
+                        aY  += f * dy;
+                        phi -= p;
+                    }
+                } else {
+                    double dx   = massX[n] - x;
+                    double dy   = massY[n] - y;
+                    double d2   = dx * dx + dy * dy;
+                    double size = 2 * halfSize[n];
+                    if (size * size < THETA_SQUARED * d2) {
+                        // far enough away, the whole node acts as one body
+                        d2 += SOFTENING_SQUARED;
+                        double p = G * mass[n] / Math.sqrt(d2);
+                        double f = p / d2;
+                        aX  += f * dx;
+                        aY  += f * dy;
+                        phi -= p;
+                    } else {
+                        int child = firstChild[n];
+                        STACK[top++] = child;
+                        STACK[top++] = child + 1;
+                        STACK[top++] = child + 2;
+                        STACK[top++] = child + 3;
+                    }
+                }
+            }
+            A_X[i] = aX;
+            A_Y[i] = aY;
+            if (null != POTENTIAL) { POTENTIAL[i] = phi; }
+        }
+    }
+
+    private void insert(final int BODY, final double X, final double Y, final double MASS) {
+        int n     = 0;
+        int depth = 0;
+        while (true) {
+            mass[n]  += MASS;
+            massX[n] += MASS * X;
+            massY[n] += MASS * Y;
+
+            if (firstChild[n] != EMPTY) {
+                n = firstChild[n] + quadrant(n, X, Y);
+                depth++;
+                continue;
+            }
+            if (firstBody[n] == EMPTY || depth == MAX_DEPTH) {
+                next[BODY]   = firstBody[n];
+                firstBody[n] = BODY;
+                return;
+            }
+
+            // occupied leaf, split it and move the body that was there one level down
+            int other = firstBody[n];
+            subdivide(n);
+            int otherChild = firstChild[n] + quadrant(n, bodyX[other], bodyY[other]);
+            mass[otherChild]      = bodyMass[other];
+            massX[otherChild]     = bodyMass[other] * bodyX[other];
+            massY[otherChild]     = bodyMass[other] * bodyY[other];
+            firstBody[otherChild] = other;
+            next[other]           = EMPTY;
+            firstBody[n]          = EMPTY;
+
+            n = firstChild[n] + quadrant(n, X, Y);
+            depth++;
+        }
+    }
+
+    private int quadrant(final int NODE, final double X, final double Y) {
+        return (X < centerX[NODE] ? 0 : 1) + (Y < centerY[NODE] ? 0 : 2);
+    }
+
+    private void subdivide(final int NODE) {
+        double half = halfSize[NODE] * 0.5;
+        double cx   = centerX[NODE];
+        double cy   = centerY[NODE];
+        firstChild[NODE] = nodeCount;
+        createNode(cx - half, cy - half, half);
+        createNode(cx + half, cy - half, half);
+        createNode(cx - half, cy + half, half);
+        createNode(cx + half, cy + half, half);
+    }
+
+    private int createNode(final double CENTER_X, final double CENTER_Y, final double HALF_SIZE) {
+        if (nodeCount == centerX.length) { allocateNodes(2 * nodeCount); }
+        int n = nodeCount++;
+        centerX[n]    = CENTER_X;
+        centerY[n]    = CENTER_Y;
+        halfSize[n]   = HALF_SIZE;
+        mass[n]       = 0;
+        massX[n]      = 0;
+        massY[n]      = 0;
+        firstChild[n] = EMPTY;
+        firstBody[n]  = EMPTY;
+        return n;
+    }
+
+    private void allocateNodes(final int CAPACITY) {
+        centerX    = null == centerX    ? new double[CAPACITY] : Arrays.copyOf(centerX, CAPACITY);
+        centerY    = null == centerY    ? new double[CAPACITY] : Arrays.copyOf(centerY, CAPACITY);
+        halfSize   = null == halfSize   ? new double[CAPACITY] : Arrays.copyOf(halfSize, CAPACITY);
+        mass       = null == mass       ? new double[CAPACITY] : Arrays.copyOf(mass, CAPACITY);
+        massX      = null == massX      ? new double[CAPACITY] : Arrays.copyOf(massX, CAPACITY);
+        massY      = null == massY      ? new double[CAPACITY] : Arrays.copyOf(massY, CAPACITY);
+        firstChild = null == firstChild ? new int[CAPACITY]    : Arrays.copyOf(firstChild, CAPACITY);
+        firstBody  = null == firstBody  ? new int[CAPACITY]    : Arrays.copyOf(firstBody, CAPACITY);
+    }
+}
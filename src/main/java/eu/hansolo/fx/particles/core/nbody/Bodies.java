@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+/**
+ * Bodies of an n-body simulation as structure-of-arrays in SI units, position [m], velocity [m/s],
+ * acceleration [m/s*s] and mass [kg].
+ */
+public class Bodies {
+    public final double[] x;
+    public final double[] y;
+    public final double[] vX;
+    public final double[] vY;
+    public final double[] aX;
+    public final double[] aY;
+    public final double[] mass;
+    private      int      count;
+
+
+    // ******************** Constructors **************************************
+    public Bodies(final int CAPACITY) {
+        x    = new double[CAPACITY];
+        y    = new double[CAPACITY];
+        vX   = new double[CAPACITY];
+        vY   = new double[CAPACITY];
+        aX   = new double[CAPACITY];
+        aY   = new double[CAPACITY];
+        mass = new double[CAPACITY];
+    }
+
+
+    // ******************** Methods *******************************************
+    public int add(final double X, final double Y, final double V_X, final double V_Y, final double MASS) {
+        if (count == mass.length) throw new IllegalStateException("Capacity of " + mass.length + " bodies exceeded");
+        int index = count++;
+        x[index]    = X;
+        y[index]    = Y;
+        vX[index]   = V_X;
+        vY[index]   = V_Y;
+        mass[index] = MASS;
+        return index;
+    }
+
+    public int getCount() { return count; }
+
+    public int getCapacity() { return mass.length; }
+}
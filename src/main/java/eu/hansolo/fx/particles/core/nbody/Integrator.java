@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+/**
+ * Advances an NBodySystem in time. Integrators get the accelerations from NBodySystem.computeAccelerations(),
+ * which is the expensive part, so their cost is the number of force evaluations per step.
+ */
+public interface Integrator {
+
+    String getName();
+
+    /**
+     * Number of force evaluations per step
+     */
+    int getForceEvaluations();
+
+    void step(NBodySystem SYSTEM, double DT);
+
+    /**
+     * @param NAME euler, verlet (leapfrog) or rk4
+     */
+    static Integrator forName(final String NAME) {
+        switch (NAME.toLowerCase()) {
+            case "euler"   : return new SemiImplicitEuler();
+            case "verlet"  :
+            case "leapfrog": return new VelocityVerlet();
+            case "rk4"     : return new RungeKutta4();
+            default        : throw new IllegalArgumentException("Unknown integrator " + NAME);
+        }
+    }
+}
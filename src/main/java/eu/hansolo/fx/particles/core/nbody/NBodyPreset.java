@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+import eu.hansolo.fx.particles.core.RandomService;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Initial conditions and units of an n-body simulation. Positions are relative to the center of the view,
+ * the renderer divides them by the meter per pixel values.
+ */
+public class NBodyPreset {
+    public  static final double  G                 = 6.673e-11; //m^3 / kg * s^2
+    public  static final double  METER_PER_PIXEL_X = 623_333_333.333333; // 240px == 149.6e6 km (distance sun earth)
+    public  static final double  METER_PER_PIXEL_Y = 623_333_333.333333;
+    public  static final double  TIME_STEP         = 3600 * 24 * 365;    // simulated seconds per frame
+    private        final String  name;
+    private        final Bodies  bodies;
+    private        final double  g;
+    private        final double  meterPerPixelX;
+    private        final double  meterPerPixelY;
+    private        final double  timeStep;
+    private        final int     subSteps;
+    private        final double  theta;
+    private        final double  softening;
+    private        final double  radius;
+
+
+    // ******************** Constructors **************************************
+    public NBodyPreset(final String NAME, final Bodies BODIES, final double G, final double METER_PER_PIXEL_X, final double METER_PER_PIXEL_Y,
+                       final double TIME_STEP, final int SUB_STEPS, final double THETA, final double SOFTENING, final double RADIUS) {
+        name           = NAME;
+        bodies         = BODIES;
+        g              = G;
+        meterPerPixelX = METER_PER_PIXEL_X;
+        meterPerPixelY = METER_PER_PIXEL_Y;
+        timeStep       = TIME_STEP;
+        subSteps       = SUB_STEPS;
+        theta          = THETA;
+        softening      = SOFTENING;
+        radius         = RADIUS;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Sun, earth and venus at the pixel positions and with the masses of the original GravityParticles setup.
+     * The planets start with their circular orbital speed sqrt(G * M_sun / r) perpendicular to the sun, so they
+     * stay on their orbits and the energy drift shows the error of the integrator. A frame advances one day
+     * (TIME_STEP / 365) in 4 sub steps of 6 hours, earth needs about 600 days for one orbit at this scale.
+     * With 3 bodies the tree is used exact (theta = 0) and the softening of one pixel doesn't bend the orbits.
+     */
+    public static NBodyPreset solarSystem() {
+        final double SUN_MASS = 1.989E30;
+        Bodies bodies = new Bodies(3);
+        addPixelBody(bodies, 0, 0, 0, 0, SUN_MASS);              // sun
+        addOrbitingBody(bodies, 240, 240, SUN_MASS, 5.97E24);    // earth
+        addOrbitingBody(bodies, -174, -174, SUN_MASS, 4.867E24); // venus
+        return new NBodyPreset("Solar system", bodies, G, METER_PER_PIXEL_X, METER_PER_PIXEL_Y, TIME_STEP / 365, 4, 0, METER_PER_PIXEL_X, 4);
+    }
+
+    /**
+     * Disk of COUNT light bodies on circular orbits around a heavy center, in units where G = 1 and a meter is a pixel
+     */
+    public static NBodyPreset galaxy(final int COUNT, final double RADIUS) {
+        final double CENTER_MASS = 1e6;
+        SplittableRandom rnd    = RandomService.stream("NBodyPreset.galaxy");
+        Bodies           bodies = new Bodies(COUNT);
+        bodies.add(0, 0, 0, 0, CENTER_MASS);
+        for (int i = 1 ; i < COUNT ; i++) {
+            double r     = RADIUS * (0.05 + 0.95 * Math.sqrt(rnd.nextDouble()));
+            double angle = rnd.nextDouble() * 2 * Math.PI;
+            double v     = Math.sqrt(CENTER_MASS / r);
+            bodies.add(r * Math.cos(angle), r * Math.sin(angle), -v * Math.sin(angle), v * Math.cos(angle), 1);
+        }
+        return new NBodyPreset("Galaxy", bodies, 1, 1, 1, 0.05, 1, 0.5, 2, 1);
+    }
+
+    private static void addPixelBody(final Bodies BODIES, final double X, final double Y, final double V_X, final double V_Y, final double MASS) {
+        BODIES.add(X * METER_PER_PIXEL_X, Y * METER_PER_PIXEL_Y, V_X, V_Y, MASS);
+    }
+
+    /**
+     * Body at the pixel position X, Y on a clockwise circular orbit around CENTER_MASS in the origin
+     */
+    private static void addOrbitingBody(final Bodies BODIES, final double X, final double Y, final double CENTER_MASS, final double MASS) {
+        double x = X * METER_PER_PIXEL_X;
+        double y = Y * METER_PER_PIXEL_Y;
+        double r = Math.sqrt(x * x + y * y);
+        double v = Math.sqrt(G * CENTER_MASS / r);
+        BODIES.add(x, y, v * y / r, -v * x / r, MASS);
+    }
+
+    public String getName() { return name; }
+
+    public Bodies getBodies() { return bodies; }
+
+    public double getG() { return g; }
+
+    public double getMeterPerPixelX() { return meterPerPixelX; }
+
+    public double getMeterPerPixelY() { return meterPerPixelY; }
+
+    /**
+     * Simulated seconds per frame
+     */
+    public double getTimeStep() { return timeStep; }
+
+    /**
+     * Number of integration steps per frame
+     */
+    public int getSubSteps() { return subSteps; }
+
+    /**
+     * Opening angle of the Barnes-Hut tree
+     */
+    public double getTheta() { return theta; }
+
+    /**
+     * [m]
+     */
+    public double getSoftening() { return softening; }
+
+    /**
+     * Radius of a body on screen [px]
+     */
+    public double getRadius() { return radius; }
+}
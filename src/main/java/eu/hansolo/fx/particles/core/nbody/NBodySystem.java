@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+import java.util.stream.IntStream;
+
+
+/**
+ * N-body simulation on top of a Barnes-Hut tree. The integrator calculates the accelerations of all bodies
+ * before it moves any of them, so the result doesn't depend on the order of the bodies.
+ *
+ * The total energy is conserved by the exact equations, its relative change since resetEnergyReference()
+ * shows how much error the integrator and the time step add.
+ */
+public class NBodySystem {
+    private static final int           CHUNK_SIZE = 1024;
+    private        final Bodies        bodies;
+    private        final BarnesHutTree tree;
+    private        final double        g;
+    private        final double[]      potential;
+    private              Integrator    integrator;
+    private              boolean       currentAccelerations;
+    private              double        referenceEnergy;
+    private              long          forceNanos;
+
+
+    // ******************** Constructors **************************************
+    public NBodySystem(final Bodies BODIES, final double G, final double THETA, final double SOFTENING) {
+        this(BODIES, G, THETA, SOFTENING, new VelocityVerlet());
+    }
+    public NBodySystem(final Bodies BODIES, final double G, final double THETA, final double SOFTENING, final Integrator INTEGRATOR) {
+        bodies     = BODIES;
+        g          = G;
+        tree       = new BarnesHutTree(THETA, SOFTENING);
+        integrator = INTEGRATOR;
+        potential  = new double[BODIES.getCapacity()];
+    }
+
+
+    // ******************** Methods *******************************************
+    public Bodies getBodies() { return bodies; }
+
+    public BarnesHutTree getTree() { return tree; }
+
+    public double getG() { return g; }
+
+    public Integrator getIntegrator() { return integrator; }
+    public void setIntegrator(final Integrator INTEGRATOR) {
+        integrator           = INTEGRATOR;
+        currentAccelerations = false;
+    }
+
+    /**
+     * Calculate the acceleration of all bodies from their current positions, in parallel for big systems
+     */
+    public void computeAccelerations() {
+        final long START = System.nanoTime();
+        final int  COUNT = bodies.getCount();
+        tree.build(bodies.x, bodies.y, bodies.mass, COUNT);
+        if (COUNT <= CHUNK_SIZE) {
+            tree.accelerate(g, bodies.aX, bodies.aY, potential, 0, COUNT);
+        } else {
+            IntStream.range(0, (COUNT + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(chunk -> {
+                int from = chunk * CHUNK_SIZE;
+                tree.accelerate(g, bodies.aX, bodies.aY, potential, from, Math.min(from + CHUNK_SIZE, COUNT));
+            });
+        }
+        currentAccelerations = true;
+        forceNanos          += System.nanoTime() - START;
+    }
+
+    /**
+     * Total time spent in computeAccelerations() (tree build and forces) since the system was created
+     */
+    public long getForceNanos() { return forceNanos; }
+
+    /**
+     * True if aX/aY (and the potential) belong to the current positions
+     */
+    public boolean hasCurrentAccelerations() { return currentAccelerations; }
+
+    /**
+     * Has to be called by everything that moves bodies
+     */
+    public void positionsChanged() { currentAccelerations = false; }
+
+    /**
+     * Advance all bodies by DT seconds with the current integrator
+     */
+    public void step(final double DT) { integrator.step(this, DT); }
+
+    /**
+     * Kinetic plus (softened) potential energy [J]. Uses the accelerations of the last step if they are
+     * current (Verlet), otherwise it costs one force evaluation.
+     */
+    public double getEnergy() {
+        if (!currentAccelerations) { computeAccelerations(); }
+        final int COUNT           = bodies.getCount();
+        double    kineticEnergy   = 0;
+        double    potentialEnergy = 0;
+        for (int i = 0 ; i < COUNT ; i++) {
+            double m = bodies.mass[i];
+            kineticEnergy   += 0.5 * m * (bodies.vX[i] * bodies.vX[i] + bodies.vY[i] * bodies.vY[i]);
+            potentialEnergy += 0.5 * m * potential[i]; // every pair is in there twice
+        }
+        return kineticEnergy + potentialEnergy;
+    }
+
+    /**
+     * Use the current energy as reference for getEnergyDrift()
+     */
+    public void resetEnergyReference() { referenceEnergy = getEnergy(); }
+
+    /**
+     * Relative change of the total energy since the last resetEnergyReference(), 0 means no drift
+     */
+    public double getEnergyDrift() {
+        return 0 == referenceEnergy ? 0 : (getEnergy() - referenceEnergy) / Math.abs(referenceEnergy);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+/**
+ * Classic fourth order Runge-Kutta. Very accurate for smooth orbits, but it needs four force evaluations per
+ * step and is not symplectic, so the energy slowly drifts over long runs.
+ */
+public class RungeKutta4 implements Integrator {
+    private double[] x0;
+    private double[] y0;
+    private double[] vX0;
+    private double[] vY0;
+    private double[] dX;  // weighted sum of the velocities of the stages
+    private double[] dY;
+    private double[] dVX; // weighted sum of the accelerations of the stages
+    private double[] dVY;
+
+
+    // ******************** Constructors **************************************
+    public RungeKutta4() {
+        allocate(0);
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public String getName() { return "Runge-Kutta 4"; }
+
+    @Override public int getForceEvaluations() { return 4; }
+
+    @Override public void step(final NBodySystem SYSTEM, final double DT) {
+        Bodies bodies = SYSTEM.getBodies();
+        int    count  = bodies.getCount();
+        if (x0.length < count) { allocate(count); }
+        System.arraycopy(bodies.x, 0, x0, 0, count);
+        System.arraycopy(bodies.y, 0, y0, 0, count);
+        System.arraycopy(bodies.vX, 0, vX0, 0, count);
+        System.arraycopy(bodies.vY, 0, vY0, 0, count);
+
+        // stage k evaluates at the state of the bodies and moves them to the start of stage k + 1
+        stage(SYSTEM, count, 1, DT * 0.5, true);
+        stage(SYSTEM, count, 2, DT * 0.5, false);
+        stage(SYSTEM, count, 2, DT, false);
+        stage(SYSTEM, count, 1, 0, false);
+
+        final double SIXTH_DT = DT / 6;
+        for (int i = 0 ; i < count ; i++) {
+            bodies.x[i]  = x0[i] + SIXTH_DT * dX[i];
+            bodies.y[i]  = y0[i] + SIXTH_DT * dY[i];
+            bodies.vX[i] = vX0[i] + SIXTH_DT * dVX[i];
+            bodies.vY[i] = vY0[i] + SIXTH_DT * dVY[i];
+        }
+        SYSTEM.positionsChanged();
+    }
+
+    private void stage(final NBodySystem SYSTEM, final int COUNT, final double WEIGHT, final double NEXT_DT, final boolean FIRST) {
+        SYSTEM.computeAccelerations();
+        Bodies bodies = SYSTEM.getBodies();
+        for (int i = 0 ; i < COUNT ; i++) {
+            double vX = bodies.vX[i];
+            double vY = bodies.vY[i];
+            double aX = bodies.aX[i];
+            double aY = bodies.aY[i];
+            if (FIRST) {
+                dX[i]  = WEIGHT * vX;
+                dY[i]  = WEIGHT * vY;
+                dVX[i] = WEIGHT * aX;
+                dVY[i] = WEIGHT * aY;
+            } else {
+                dX[i]  += WEIGHT * vX;
+                dY[i]  += WEIGHT * vY;
+                dVX[i] += WEIGHT * aX;
+                dVY[i] += WEIGHT * aY;
+            }
+            bodies.x[i]  = x0[i] + NEXT_DT * vX;
+            bodies.y[i]  = y0[i] + NEXT_DT * vY;
+            bodies.vX[i] = vX0[i] + NEXT_DT * aX;
+            bodies.vY[i] = vY0[i] + NEXT_DT * aY;
+        }
+        SYSTEM.positionsChanged();
+    }
+
+    private void allocate(final int CAPACITY) {
+        x0  = new double[CAPACITY];
+        y0  = new double[CAPACITY];
+        vX0 = new double[CAPACITY];
+        vY0 = new double[CAPACITY];
+        dX  = new double[CAPACITY];
+        dY  = new double[CAPACITY];
+        dVX = new double[CAPACITY];
+        dVY = new double[CAPACITY];
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+/**
+ * First order symplectic Euler: velocity from the current acceleration, then position from the new velocity.
+ * One force evaluation per step, the energy oscillates but doesn't drift away, the orbits precess though.
+ */
+public class SemiImplicitEuler implements Integrator {
+
+    @Override public String getName() { return "Semi-implicit Euler"; }
+
+    @Override public int getForceEvaluations() { return 1; }
+
+    @Override public void step(final NBodySystem SYSTEM, final double DT) {
+        SYSTEM.computeAccelerations();
+        Bodies bodies = SYSTEM.getBodies();
+        for (int i = 0 ; i < bodies.getCount() ; i++) {
+            bodies.vX[i] += bodies.aX[i] * DT;
+            bodies.vY[i] += bodies.aY[i] * DT;
+            bodies.x[i]  += bodies.vX[i] * DT;
+            bodies.y[i]  += bodies.vY[i] * DT;
+        }
+        SYSTEM.positionsChanged();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.particles.core.nbody;
+
+/**
+ * Second order symplectic leapfrog in kick-drift-kick form (velocity Verlet). The accelerations at the end of
+ * a step are the ones at the start of the next step, so it needs one force evaluation per step like Euler,
+ * but allows much larger time steps for the same accuracy and keeps the energy bounded.
+ */
+public class VelocityVerlet implements Integrator {
+
+    @Override public String getName() { return "Velocity Verlet"; }
+
+    @Override public int getForceEvaluations() { return 1; }
+
+    @Override public void step(final NBodySystem SYSTEM, final double DT) {
+        if (!SYSTEM.hasCurrentAccelerations()) { SYSTEM.computeAccelerations(); }
+        final double HALF_DT = DT * 0.5;
+        Bodies bodies = SYSTEM.getBodies();
+        int    count  = bodies.getCount();
+        // kick, drift
+        for (int i = 0 ; i < count ; i++) {
+            bodies.vX[i] += bodies.aX[i] * HALF_DT;
+            bodies.vY[i] += bodies.aY[i] * HALF_DT;
+            bodies.x[i]  += bodies.vX[i] * DT;
+            bodies.y[i]  += bodies.vY[i] * DT;
+        }
+        SYSTEM.positionsChanged();
+        // kick with the accelerations at the new positions
+        SYSTEM.computeAccelerations();
+        for (int i = 0 ; i < count ; i++) {
+            bodies.vX[i] += bodies.aX[i] * HALF_DT;
+            bodies.vY[i] += bodies.aY[i] * HALF_DT;
+        }
+    }
+}
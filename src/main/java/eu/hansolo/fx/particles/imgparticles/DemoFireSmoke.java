@@ -16,6 +16,8 @@
 
 package eu.hansolo.fx.particles.imgparticles;
 
+import eu.hansolo.fx.particles.LifecycleController;
+import eu.hansolo.fx.particles.ProfilerOverlay;
 import javafx.application.Application;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
@@ -61,9 +63,15 @@ public class DemoFireSmoke extends Application {
         smoke.setHeight(400);
         smoke.setMouseTransparent(true);
 
-        pane.getChildren().addAll(grid, smoke, fire);
+        ProfilerOverlay overlay = new ProfilerOverlay();
+        overlay.add("effects", EffectScheduler.getInstance().getProfiler());
+        overlay.add("fire", fire.getProfiler());
+        overlay.add("smoke", smoke.getProfiler());
+
+        pane.getChildren().addAll(grid, smoke, fire, overlay);
 
         Scene scene = new Scene(pane, 400, 400, Color.WHITE);
+        overlay.install(scene);
         scene.widthProperty().addListener(e -> {
             fire.setWidth(scene.getWidth());
             smoke.setWidth(scene.getWidth());
@@ -77,6 +85,11 @@ public class DemoFireSmoke extends Application {
         stage.setTitle("JavaFX Particles");
         stage.show();
 
+        // stop all effects while minimized, hidden or idle
+        EffectScheduler     scheduler = EffectScheduler.getInstance();
+        LifecycleController lifecycle = new LifecycleController(stage);
+        lifecycle.manage(scheduler::suspend, () -> scheduler.resume(lifecycle.getCatchUp()));
+
         pane.setOnMousePressed(mouseEvent -> {
             toggle ^= true;
             if (toggle) {
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.particles.imgparticles;
+
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.stage.Window;
+
+
+/**
+ * An effect that is driven by the EffectScheduler. step() is called on the simulation thread of the
+ * scheduler, draw() on the FX thread, but only while the canvas of the effect is on screen.
+ */
+interface Effect {
+
+    Canvas getCanvas();
+
+    /**
+     * One simulation step, runs on the simulation thread of the scheduler
+     */
+    void step();
+
+    /**
+     * Draws the last published step, runs on the FX thread
+     */
+    void draw(long NOW);
+
+    /**
+     * True if the canvas has a size, is visible and at least partly inside of the scene of a showing window.
+     * Clipping by a parent (e.g. the viewport of a ScrollPane) is not taken into account.
+     */
+    default boolean isOnScreen() {
+        Canvas canvas = getCanvas();
+        if (canvas.getWidth() <= 0 || canvas.getHeight() <= 0) return false;
+        Scene scene = canvas.getScene();
+        if (null == scene) return false;
+        Window window = scene.getWindow();
+        if (null == window || !window.isShowing()) return false;
+        for (Node node = canvas ; null != node ; node = node.getParent()) {
+            if (!node.isVisible()) return false;
+        }
+        Bounds bounds = canvas.localToScene(canvas.getBoundsInLocal());
+        return bounds.getMaxX() > 0 && bounds.getMaxY() > 0 && bounds.getMinX() < scene.getWidth() && bounds.getMinY() < scene.getHeight();
+    }
+}
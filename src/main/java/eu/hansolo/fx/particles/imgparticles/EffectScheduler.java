@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.particles.imgparticles;
+
+import eu.hansolo.fx.particles.core.AdditiveCompositor;
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FixedStepLoop.CatchUp;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.ParticleMetrics;
+import eu.hansolo.fx.particles.core.TileRasterizer;
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Drives all Fire and Smoke instances with one simulation thread and one AnimationTimer, so fifty effects
+ * in a scene cost one timer callback per pulse and no extra threads. The cpu and additive renderers of all
+ * effects share one TileRasterizer and one AdditiveCompositor, they are only used on the FX thread one effect
+ * after the other and created with the first effect that needs them. Effects add themselves on start() and
+ * remove themselves once they faded out. Effects that are off screen or have no size are paused, they are
+ * neither stepped nor drawn until they are visible again. Thread and timer only run while there are effects,
+ * at least one of them is on screen and the scheduler is not suspended. If all effects are paused, thread and
+ * timer are stopped and the scheduler listens to the size, scene, window, visibility and position of their
+ * canvases instead, the first change starts them again.
+ *
+ * The effects don't register their ParticleMetrics as MBeans, fifty effects would be fifty MBeans.
+ * -Dparticles.jmx.effects=true registers them.
+ *
+ * The profiler records the whole pulse including the frame interval, the allocations and the GCs, the
+ * profilers of the effects only record their own steps and draws.
+ */
+public class EffectScheduler {
+    private static final boolean                  REGISTER_METRICS = Boolean.getBoolean("particles.jmx.effects");
+    private static final EffectScheduler          INSTANCE         = new EffectScheduler();
+    private        final List<Entry>              entries;
+    private        final FixedStepLoop            loop;
+    private        final AnimationTimer           timer;
+    private        final FrameProfiler            profiler;
+    private        final ChangeListener<Object>   wakeUp;
+    private        final List<ObservableValue<?>> watched;
+    private              boolean                  suspended;
+    private              boolean                  idle;
+    private              TileRasterizer           rasterizer;
+    private              AdditiveCompositor       compositor;
+
+
+    // ******************** Constructors **************************************
+    private EffectScheduler() {
+        entries  = new CopyOnWriteArrayList<>();
+        loop     = new FixedStepLoop("Effects", this::step);
+        profiler = new FrameProfiler();
+        wakeUp   = (o, ov, nv) -> wake();
+        watched  = new ArrayList<>();
+        timer    = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                long start = profiler.beginFrame(NOW);
+                pulse(NOW);
+                profiler.record(Phase.RENDER, start);
+                profiler.endFrame(NOW);
+            }
+        };
+    }
+
+
+    // ******************** Methods *******************************************
+    public static EffectScheduler getInstance() { return INSTANCE; }
+
+    public FrameProfiler getProfiler() { return profiler; }
+
+    /**
+     * Number of effects that are running or fading out
+     */
+    public int getEffectCount() { return entries.size(); }
+
+    /**
+     * Number of effects that are stepped and drawn, the others are off screen
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (Entry entry : entries) { if (!entry.paused) count++; }
+        return count;
+    }
+
+    FixedStepLoop getLoop() { return loop; }
+
+    // Called on the FX thread
+    TileRasterizer getRasterizer() {
+        if (null == rasterizer) { rasterizer = new TileRasterizer(Runtime.getRuntime().availableProcessors()); }
+        return rasterizer;
+    }
+
+    // Called on the FX thread
+    AdditiveCompositor getCompositor() {
+        if (null == compositor) { compositor = new AdditiveCompositor(Runtime.getRuntime().availableProcessors()); }
+        return compositor;
+    }
+
+    // Called on the FX thread
+    ParticleMetrics createMetrics(final String NAME) { return ParticleMetrics.create(NAME, REGISTER_METRICS); }
+
+    // Called on the FX thread
+    void add(final Effect EFFECT) {
+        for (Entry entry : entries) { if (entry.effect == EFFECT) return; }
+        entries.add(new Entry(EFFECT));
+        if (suspended) return;
+        unwatch();
+        loop.start();
+        timer.start();
+    }
+
+    // Called on the FX thread
+    void remove(final Effect EFFECT) {
+        entries.removeIf(entry -> entry.effect == EFFECT);
+        if (entries.isEmpty()) {
+            timer.stop();
+            loop.stop();
+            unwatch();
+        }
+    }
+
+    /**
+     * Stop stepping and drawing all effects, e.g. while the window is minimized. Must be called on the FX thread.
+     */
+    public void suspend() {
+        suspended = true;
+        timer.stop();
+        loop.pause();
+    }
+
+    /**
+     * Continue after suspend(), the effects catch up according to CATCH_UP. Must be called on the FX thread.
+     */
+    public void resume(final CatchUp CATCH_UP) {
+        if (!suspended) return;
+        suspended = false;
+        if (entries.isEmpty()) return;
+        unwatch();
+        loop.resume(CATCH_UP);
+        timer.start();
+    }
+
+    public boolean isSuspended() { return suspended; }
+
+    // Runs on the simulation thread
+    private void step() {
+        for (Entry entry : entries) {
+            if (!entry.paused) { entry.effect.step(); }
+        }
+    }
+
+    private void pulse(final long NOW) {
+        boolean active = false;
+        for (Entry entry : entries) {
+            boolean onScreen = entry.effect.isOnScreen();
+            entry.paused = !onScreen;
+            if (onScreen) {
+                entry.effect.draw(NOW);
+                active = true;
+            }
+        }
+        if (!active && !entries.isEmpty()) { sleep(); }
+    }
+
+    // All effects are paused: stop thread and timer until something changes that might bring one on screen
+    private void sleep() {
+        timer.stop();
+        loop.stop();
+        idle = true;
+        for (Entry entry : entries) { watch(entry.effect.getCanvas()); }
+    }
+
+    private void wake() {
+        if (!idle) return;
+        unwatch();
+        if (suspended || entries.isEmpty()) return;
+        loop.start();
+        timer.start();
+    }
+
+    private void watch(final Canvas CANVAS) {
+        watch(CANVAS.widthProperty());
+        watch(CANVAS.heightProperty());
+        watch(CANVAS.sceneProperty());
+        watch(CANVAS.localToSceneTransformProperty());
+        for (Node node = CANVAS ; null != node ; node = node.getParent()) { watch(node.visibleProperty()); }
+        Scene scene = CANVAS.getScene();
+        if (null == scene) return;
+        watch(scene.widthProperty());
+        watch(scene.heightProperty());
+        watch(scene.windowProperty());
+        if (null != scene.getWindow()) { watch(scene.getWindow().showingProperty()); }
+    }
+    private void watch(final ObservableValue<?> VALUE) {
+        VALUE.addListener(wakeUp);
+        watched.add(VALUE);
+    }
+
+    private void unwatch() {
+        idle = false;
+        for (ObservableValue<?> value : watched) { value.removeListener(wakeUp); }
+        watched.clear();
+    }
+
+
+    // ******************** InnerClasses **************************************
+    private static class Entry {
+        private final    Effect  effect;
+        private volatile boolean paused;
+
+
+        // ******************** Constructor ***********************************
+        public Entry(final Effect EFFECT) {
+            effect = EFFECT;
+        }
+    }
+}
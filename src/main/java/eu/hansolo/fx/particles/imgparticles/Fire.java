@@ -16,43 +16,60 @@
 
 package eu.hansolo.fx.particles.imgparticles;
 
-import javafx.animation.AnimationTimer;
+import eu.hansolo.fx.particles.DirtyRegion;
+import eu.hansolo.fx.particles.SpriteBatch;
+import eu.hansolo.fx.particles.core.AdditiveCompositor;
+import eu.hansolo.fx.particles.core.FireSimulation;
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.ParticleMetrics;
+import eu.hansolo.fx.particles.core.TripleBuffer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
 
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Created by hansolo on 07.11.16.
+ *
+ * -Dparticles.fire.rate sets the number of new particles per second, each one lives for about a second.
+ * All instances are stepped and drawn by the shared EffectScheduler.
  */
-public class Fire extends Canvas {
-    private static final Random              RND             = new Random();
-    private static final Image               IMAGE           = new Image(Smoke.class.getResourceAsStream("fire.png"));
-    private static final double              HALF_WIDTH      = IMAGE.getWidth() * 0.5;
-    private static final double              HALF_HEIGHT     = IMAGE.getHeight() * 0.5;
-    private static final int                 NO_OF_PARTICLES = 150;
-    private static       double              width;
-    private static       double              height;
-    private static       boolean             running;
-    private              GraphicsContext     ctx;
-    private              AnimationTimer      timer;
-    // Parameters for array based particles
-    private static final int                 NO_OF_FIELDS    = 9; // x, y, vx, vy, opacity, size, life, remaining life, active
-    private static final int                 ARRAY_LENGTH    = NO_OF_PARTICLES * NO_OF_FIELDS;
-    private static final int                 X               = 0;
-    private static final int                 Y               = 1;
-    private static final int                 VX              = 2;
-    private static final int                 VY              = 3;
-    private static final int                 OPACITY         = 4;
-    private static final int                 SIZE            = 5;
-    private static final int                 LIFE            = 6;
-    private static final int                 REMAINING_LIFE  = 7;
-    private static final int                 ACTIVE          = 8;
-    private boolean                          particlesVisible;
-    private boolean                          initialized;
-    private double[]                         particles;
+public class Fire extends Canvas implements Effect {
+    private static final    Image               IMAGE            = new Image(Smoke.class.getResourceAsStream("fire.png"));
+    private static final    double              HALF_HEIGHT      = IMAGE.getHeight() * 0.5;
+    private static final    int                 RATE             = Integer.getInteger("particles.fire.rate", (int) FireSimulation.DEFAULT_RATE);
+    private static final    int                 CAPACITY         = Math.max(256, RATE + RATE / 4);
+    private static final    AtomicInteger       INSTANCES        = new AtomicInteger();
+    private                 double              width;
+    private                 double              height;
+    private                 boolean             running;
+    private volatile        boolean             reset;
+    private                 GraphicsContext     ctx;
+    private                 EffectScheduler     scheduler;
+    private                 FixedStepLoop       loop;
+    private                 TripleBuffer<Frame> frames;
+    private                 FrameProfiler       profiler;
+    private                 ParticleMetrics     metrics;
+    private static final    boolean             CPU              = "cpu".equals(System.getProperty("particles.renderer"));
+    private static final    boolean             ADDITIVE         = "additive".equals(System.getProperty("particles.renderer"));
+    private                 SpriteBatch         batch;
+    private                 DirtyRegion         region;
+    private                 AdditiveCompositor  compositor;
+    private                 int[]               imagePixels;
+    private static final    int                 X                = FireSimulation.X;
+    private static final    int                 Y                = FireSimulation.Y;
+    private static final    int                 VX               = FireSimulation.VX;
+    private static final    int                 VY               = FireSimulation.VY;
+    private static final    int                 OPACITY          = FireSimulation.OPACITY;
+    private static final    int                 REMAINING_LIFE   = FireSimulation.REMAINING_LIFE;
+    private static final    int                 NO_OF_FIELDS     = FireSimulation.NO_OF_FIELDS;
+    private                 FireSimulation      simulation;
+
 
 
     // ******************** Constructor ***************************************
@@ -61,101 +78,195 @@ public class Fire extends Canvas {
         ctx              = getGraphicsContext2D();
         width            = getWidth();
         height           = getHeight();
-        timer            = new AnimationTimer() {
-            @Override public void handle(final long NOW) {
-                drawFast();
-            }
-        };
-        particlesVisible = true;
-        initialized      = false;
+        simulation       = new FireSimulation(CAPACITY, HALF_HEIGHT);
+        simulation.setEmissionRate(RATE);
+        scheduler        = EffectScheduler.getInstance();
+        loop             = scheduler.getLoop();
+        frames           = new TripleBuffer<>(() -> new Frame(CAPACITY));
+        batch            = new SpriteBatch(IMAGE, CAPACITY);
+        if (CPU) { batch.setRasterizer(scheduler.getRasterizer()); }
+        region           = new DirtyRegion();
+        profiler         = new FrameProfiler();
+        int instance     = INSTANCES.getAndIncrement();
+        metrics          = scheduler.createMetrics(0 == instance ? "fire" : "fire-" + (instance + 1));
 
         registerListeners();
     }
 
+    /**
+     * Removes all particles with the next step
+     */
     public void init() {
-        // Initialize particles
-        particles = new double[ARRAY_LENGTH];
-        int pos   = 0; // next position to insert new particle
-        for (int i = 0 ; i < NO_OF_PARTICLES - NO_OF_FIELDS; i++) {
-            initParticle(pos);
-            pos += NO_OF_FIELDS;
-        }
+        simulation.setSize(width, height);
+        reset = true;
     }
 
     private void registerListeners() {
-        widthProperty().addListener((ov, oldWidth, newWidth) -> width = newWidth.doubleValue());
-        heightProperty().addListener((ov, oldHeight, newHeight) -> height = newHeight.doubleValue());
+        widthProperty().addListener((ov, oldWidth, newWidth) -> {
+            width = newWidth.doubleValue();
+            simulation.setSize(width, height);
+            region.invalidate();
+        });
+        heightProperty().addListener((ov, oldHeight, newHeight) -> {
+            height = newHeight.doubleValue();
+            simulation.setSize(width, height);
+            region.invalidate();
+        });
     }
 
 
     // ******************** Methods *******************************************
+    public FrameProfiler getProfiler() { return profiler; }
+
+    public ParticleMetrics getMetrics() { return metrics; }
+
+    /**
+     * New particles per second
+     */
+    public void setEmissionRate(final double RATE) { simulation.setEmissionRate(RATE); }
+
     public void start() {
         if (running) return;
         running = true;
-        if (!initialized) init();
-        timer.start();
+        init(); // might still be fading out
+        simulation.setRunning(true);
+        scheduler.add(this);
     }
 
     public void stop() {
         if (!running) return;
         running = false;
+        simulation.setRunning(false);
     }
 
-    private void initParticle(final int POS) {
-        particles[POS + X]              = RND.nextDouble() * width;
-        particles[POS + Y]              = height + HALF_HEIGHT;
-        particles[POS + VX]             = (RND.nextDouble() * 2.0) - 1.0;
-        particles[POS + VY]             = -(RND.nextDouble() * 3);
-        particles[POS + OPACITY]        = 1.0;
-        particles[POS + SIZE]           = (RND.nextDouble() * 1.0) + 0.5;
-        particles[POS + LIFE]           = (RND.nextDouble() * 20) + 40;
-        particles[POS + REMAINING_LIFE] = particles[POS + LIFE];
-        particles[POS + ACTIVE]         = 1;
+    /**
+     * Stops the effect right away and unregisters its metrics, call it when the effect is removed for good
+     */
+    public void dispose() {
+        running = false;
+        simulation.setRunning(false);
+        scheduler.remove(this);
+        metrics.close();
     }
 
-    private void update(final int POS) {
-        // Update only active particles
-        if (particles[POS + ACTIVE] > 0) {
-            // Calculate opacity
-            particles[POS + OPACITY] = (particles[POS + REMAINING_LIFE] / particles[POS + LIFE] * 0.5);
-
-            // Calculate new pos
-            particles[POS + X] += particles[POS + VX];
-            particles[POS + Y] += particles[POS + VY];
-
-            // Calculate remaining life
-            particles[POS + REMAINING_LIFE]--;
-
-            //regenerate particles
-            if(particles[POS + REMAINING_LIFE] < 0 || particles[POS + SIZE] < 0 || particles[POS + OPACITY] < 0.01) {
-                if (running) {
-                    initParticle(POS);
-                } else {
-                    if (particles[POS + OPACITY] < 0) {
-                        particles[POS + ACTIVE]  = 0;
-                    }
-                }
+    @Override public Canvas getCanvas() { return this; }
+
+    // Runs on the simulation thread
+    @Override public void step() {
+        if (reset) {
+            reset = false;
+            simulation.init();
+        }
+        Frame    frame            = frames.getBack();
+        int      count            = 0;
+        long     start            = System.nanoTime();
+        boolean  particlesVisible = simulation.update();
+        profiler.record(Phase.INTEGRATE, start);
+        double[] particles        = simulation.getParticles();
+        int      end              = particles.length;
+        int      pos              = simulation.getHead();
+        for (int i = 0 ; i < simulation.getCount() ; i++) {
+            if (particles[pos + REMAINING_LIFE] >= 0) {
+                frame.x[count]       = particles[pos + X];
+                frame.y[count]       = particles[pos + Y];
+                frame.vX[count]      = particles[pos + VX];
+                frame.vY[count]      = particles[pos + VY];
+                frame.opacity[count] = particles[pos + OPACITY];
+                count++;
             }
+            pos += NO_OF_FIELDS;
+            if (pos == end) { pos = 0; }
         }
+        metrics.step(loop.getStepTime(), count, simulation.getEmitted(), simulation.getDied(), System.nanoTime() - start);
+        frame.count   = count;
+        frame.visible = particlesVisible;
+        frame.time    = loop.getStepTime();
+        frames.publish();
+    }
+
+    // Runs on the FX thread
+    @Override public void draw(final long NOW) {
+        long start = System.nanoTime();
+        drawFast();
+        long end   = profiler.record(Phase.RENDER, start);
+        metrics.frame(NOW, end - start);
     }
 
     private void drawFast() {
-        ctx.clearRect(0, 0, width, height);
-        particlesVisible = false;
-        for (int pos = 0 ; pos < NO_OF_PARTICLES; pos += NO_OF_FIELDS) {
-            // Update particle data
-            update(pos);
-            if (particles[pos + OPACITY] > 0.01) particlesVisible = true;
-
-            // Draw particle from image
-            ctx.save();
-            ctx.translate(particles[pos + X], particles[pos + Y]);
-            //ctx.scale(particles[pos + SIZE], particles[pos + SIZE]);
-            ctx.translate(-HALF_WIDTH, -HALF_HEIGHT);
-            ctx.setGlobalAlpha(particles[pos + OPACITY]);
-            ctx.drawImage(IMAGE, 0, 0);
-            ctx.restore();
+        frames.update();
+        Frame  frame = frames.getFront();
+        double back  = 1.0 - loop.getAlpha(frame.time);
+
+        if (ADDITIVE) {
+            renderAdditive(frame, back);
+        } else {
+            batch.clear();
+            for (int i = 0 ; i < frame.count; i++) {
+                batch.add(frame.x[i] - back * frame.vX[i], frame.y[i] - back * frame.vY[i], 1, frame.opacity[i]);
+            }
+            render();
+        }
+        if (!frame.visible && !running) scheduler.remove(this); // faded out
+    }
+
+    // One drawImage() per particle and one setGlobalAlpha() per alpha bucket, or a single drawImage() of the
+    // composited pixels in cpu mode. Only the bounds of the particles are cleared and drawn.
+    private void render() { batch.render(ctx, region, width, height, CPU); }
+
+    // Glow: the particles are added up on all cores and tone mapped, the result is drawn as one image. Only
+    // the bounds of the particles are cleared and composited.
+    private void renderAdditive(final Frame FRAME, final double BACK) {
+        int imageWidth  = (int) IMAGE.getWidth();
+        int imageHeight = (int) IMAGE.getHeight();
+        region.begin();
+        for (int i = 0 ; i < FRAME.count ; i++) {
+            double x = FRAME.x[i] - BACK * FRAME.vX[i] - imageWidth * 0.5;
+            double y = FRAME.y[i] - BACK * FRAME.vY[i] - HALF_HEIGHT;
+            region.add(x, y, x + imageWidth, y + imageHeight);
+        }
+        region.clear(ctx, width, height);
+        if (region.isEmpty()) return;
+
+        if (null == compositor) {
+            imagePixels = new int[imageWidth * imageHeight];
+            IMAGE.getPixelReader().getPixels(0, 0, imageWidth, imageHeight, PixelFormat.getIntArgbPreInstance(), imagePixels, 0, imageWidth);
+            compositor  = scheduler.getCompositor();
+        }
+        int rx = region.getX();
+        int ry = region.getY();
+        int rw = region.getWidth();
+        int rh = region.getHeight();
+        compositor.clear();
+        for (int i = 0 ; i < FRAME.count ; i++) {
+            int x = (int) Math.round(FRAME.x[i] - BACK * FRAME.vX[i] - imageWidth * 0.5) - rx;
+            int y = (int) Math.round(FRAME.y[i] - BACK * FRAME.vY[i] - HALF_HEIGHT) - ry;
+            compositor.add(imagePixels, imageWidth, 0, 0, imageWidth, imageHeight, x, y, FRAME.opacity[i]);
+        }
+        compositor.composite(region.getLayer().getPixels(), rw, rh);
+        region.drawLayer(ctx);
+    }
+
+
+    // ******************** InnerClasses **************************************
+    // Snapshot of one simulation step
+    private static class Frame {
+        public final double[] x;
+        public final double[] y;
+        public final double[] vX;
+        public final double[] vY;
+        public final double[] opacity;
+        public       int      count;
+        public       boolean  visible = true;
+        public       long     time;
+
+
+        // ******************** Constructor ***********************************
+        public Frame(final int CAPACITY) {
+            x       = new double[CAPACITY];
+            y       = new double[CAPACITY];
+            vX      = new double[CAPACITY];
+            vY      = new double[CAPACITY];
+            opacity = new double[CAPACITY];
         }
-        if (!particlesVisible) timer.stop();
     }
 }
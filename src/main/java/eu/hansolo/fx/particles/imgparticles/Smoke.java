@@ -16,33 +16,47 @@
 
 package eu.hansolo.fx.particles.imgparticles;
 
-import javafx.animation.AnimationTimer;
+import eu.hansolo.fx.particles.DirtyRegion;
+import eu.hansolo.fx.particles.SpriteBatch;
+import eu.hansolo.fx.particles.core.FixedStepLoop;
+import eu.hansolo.fx.particles.core.FrameProfiler;
+import eu.hansolo.fx.particles.core.FrameProfiler.Phase;
+import eu.hansolo.fx.particles.core.ParticleMetrics;
+import eu.hansolo.fx.particles.core.SmokeSimulation;
+import eu.hansolo.fx.particles.core.TripleBuffer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
 
-import java.util.List;
-import java.util.Random;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Created by hansolo on 07.11.16.
+ *
+ * -Dparticles.smoke.rate sets the number of new particles per second.
+ * All instances are stepped and drawn by the shared EffectScheduler.
  */
-public class Smoke extends Canvas {
-    private static final Random              RND             = new Random();
-    private static final Image               IMAGE           = new Image(Smoke.class.getResourceAsStream("smoke2.png"));
-    private static final double              HALF_WIDTH      = IMAGE.getWidth() * 0.5;
-    private static final double              HALF_HEIGHT     = IMAGE.getHeight() * 0.5;
-    private static final long                GENERATION_RATE = 1_000_000_000l / 50;
-    private static final int                 NO_OF_PARTICLES = 150;
-    private static       double              width;
-    private static       double              height;
-    private static       boolean             running;
-    private              GraphicsContext     ctx;
-    private              List<ImageParticle> particles;
-    private              long                lastTimerCall;
-    private              AnimationTimer      timer;
+public class Smoke extends Canvas implements Effect {
+    private static final    Image               IMAGE           = new Image(Smoke.class.getResourceAsStream("smoke2.png"));
+    private static final    double              HALF_HEIGHT     = IMAGE.getHeight() * 0.5;
+    private static final    int                 NO_OF_PARTICLES = 150;
+    private static final    int                 RATE            = Integer.getInteger("particles.smoke.rate", (int) SmokeSimulation.DEFAULT_RATE);
+    private static final    AtomicInteger       INSTANCES       = new AtomicInteger();
+    private                 double              width;
+    private                 double              height;
+    private                 boolean             running;
+    private                 GraphicsContext     ctx;
+    private                 SmokeSimulation     simulation;
+    private                 EffectScheduler     scheduler;
+    private                 FixedStepLoop       loop;
+    private                 TripleBuffer<Frame> frames;
+    private                 FrameProfiler       profiler;
+    private                 ParticleMetrics     metrics;
+    private static final    boolean             CPU             = "cpu".equals(System.getProperty("particles.renderer"));
+    private                 SpriteBatch         batch;
+    private                 DirtyRegion         region;
+
 
 
     // ******************** Constructor ***************************************
@@ -51,132 +65,136 @@ public class Smoke extends Canvas {
         ctx           = getGraphicsContext2D();
         width         = getWidth();
         height        = getHeight();
-        particles     = new CopyOnWriteArrayList<>();
-        lastTimerCall = System.nanoTime();
-        timer         = new AnimationTimer() {
-            @Override public void handle(final long NOW) {
-                if (NOW > lastTimerCall + GENERATION_RATE) {
-                    if (running && particles.size() < NO_OF_PARTICLES) particles.add(new ImageParticle());
-                    if (particles.isEmpty()) timer.stop();
-                    lastTimerCall = NOW;
-                }
-                draw();
-            }
-        };
+        simulation    = new SmokeSimulation(NO_OF_PARTICLES, HALF_HEIGHT);
+        simulation.setEmissionRate(RATE);
+        scheduler     = EffectScheduler.getInstance();
+        loop          = scheduler.getLoop();
+        frames        = new TripleBuffer<>(() -> new Frame(NO_OF_PARTICLES));
+        batch         = new SpriteBatch(IMAGE, NO_OF_PARTICLES);
+        if (CPU) { batch.setRasterizer(scheduler.getRasterizer()); }
+        region        = new DirtyRegion();
+        profiler      = new FrameProfiler();
+        int instance  = INSTANCES.getAndIncrement();
+        metrics       = scheduler.createMetrics(0 == instance ? "smoke" : "smoke-" + (instance + 1));
 
         registerListeners();
     }
 
     private void registerListeners() {
-        widthProperty().addListener((ov, oldWidth, newWidth) -> width = newWidth.doubleValue());
-        heightProperty().addListener((ov, oldHeight, newHeight) -> height = newHeight.doubleValue());
+        widthProperty().addListener((ov, oldWidth, newWidth) -> {
+            width = newWidth.doubleValue();
+            simulation.setSize(width, height);
+            region.invalidate();
+        });
+        heightProperty().addListener((ov, oldHeight, newHeight) -> {
+            height = newHeight.doubleValue();
+            simulation.setSize(width, height);
+            region.invalidate();
+        });
     }
 
 
     // ******************** Methods *******************************************
+    public FrameProfiler getProfiler() { return profiler; }
+
+    public ParticleMetrics getMetrics() { return metrics; }
+
+    /**
+     * New particles per second
+     */
+    public void setEmissionRate(final double RATE) { simulation.setEmissionRate(RATE); }
+
     public void start() {
         if (running) return;
         running = true;
-        timer.start();
+        simulation.setSize(width, height);
+        simulation.setRunning(true);
+        scheduler.add(this);
     }
 
     public void stop() {
         if (!running) return;
         running = false;
+        simulation.setRunning(false);
     }
 
-    private void draw() {
-        //ctx.setGlobalBlendMode(BlendMode.SRC_OVER);
-        //ctx.setFill(Color.BLACK);
-        //ctx.fillRect(0, 0, width, height);
-        ctx.clearRect(0, 0, width, height);
-
-        for (ImageParticle p : particles) {
-            p.opacity = p.remainingLife / p.life * 0.5;
-
-            // Draw particle from image
-            ctx.save();
-            ctx.translate(p.x, p.y);
-            ctx.scale(p.size, p.size);
-            //ctx.translate(p.image.getWidth() * (-0.5), p.image.getHeight() * (-0.5));
-            ctx.translate(-HALF_WIDTH, -HALF_HEIGHT);
-            ctx.setGlobalAlpha(p.opacity);
-            ctx.drawImage(p.image, 0, 0);
-            ctx.restore();
-
-            //p.remainingLife--;
-            p.remainingLife *= 0.98;
-            //p.size *= 0.99;
-            p.x += p.vX;
-            p.y += p.vY;
-
-            //regenerate particles
-            if (p.remainingLife < 0 || p.size < 0 || p.opacity < 0.01) {
-                if (running) {
-                    p.reInit();
-                } else {
-                    particles.remove(p);
-                }
-            }
-        }
+    /**
+     * Stops the effect right away and unregisters its metrics, call it when the effect is removed for good
+     */
+    public void dispose() {
+        running = false;
+        simulation.setRunning(false);
+        scheduler.remove(this);
+        metrics.close();
     }
 
+    @Override public Canvas getCanvas() { return this; }
+
+    // Runs on the simulation thread
+    @Override public void step() {
+        Frame frame = frames.getBack();
+        long  start = System.nanoTime();
+        int   count = simulation.update();
+        long  end   = profiler.record(Phase.INTEGRATE, start);
+        metrics.step(loop.getStepTime(), count, simulation.getEmitted(), simulation.getDied(), end - start);
+        System.arraycopy(simulation.x, 0, frame.x, 0, count);
+        System.arraycopy(simulation.y, 0, frame.y, 0, count);
+        System.arraycopy(simulation.vX, 0, frame.vX, 0, count);
+        System.arraycopy(simulation.vY, 0, frame.vY, 0, count);
+        System.arraycopy(simulation.size, 0, frame.size, 0, count);
+        System.arraycopy(simulation.opacity, 0, frame.opacity, 0, count);
+        frame.count = count;
+        frame.time  = loop.getStepTime();
+        frames.publish();
+    }
 
-    // ******************** InnerClasses **************************************
-    private class ImageParticle {
-        private double x;
-        private double y;
-        private double vX;
-        private double vY;
-        private double opacity;
-        private double size;
-        private Image  image;
-        private double life;
-        private double remainingLife;
-
-
-        // ******************** Constructor ***********************************
-        public ImageParticle() {
-            // Position
-            x = RND.nextDouble() * getWidth();
-            y = getHeight() + HALF_HEIGHT;
-
-            // Size
-            size = (RND.nextDouble() * 1) + 0.5;
-
-            // Velocity
-            vX = (RND.nextDouble() * 0.5) - 0.25;
-            vY = -(RND.nextDouble() * 3);
-
-            // Opacity
-            opacity = 1.0;
+    // Runs on the FX thread
+    @Override public void draw(final long NOW) {
+        long start = System.nanoTime();
+        drawFrame();
+        long end   = profiler.record(Phase.RENDER, start);
+        metrics.frame(NOW, end - start);
+    }
 
-            // Image
-            image = IMAGE;
+    private void drawFrame() {
+        frames.update();
+        Frame  frame = frames.getFront();
+        double back  = 1.0 - loop.getAlpha(frame.time);
 
-            // Life
-            life          = (RND.nextDouble() * 20) + 40;
-            remainingLife = life;
+        batch.clear();
+        for (int i = 0 ; i < frame.count ; i++) {
+            batch.add(frame.x[i] - back * frame.vX[i], frame.y[i] - back * frame.vY[i], frame.size[i], frame.opacity[i]);
         }
+        render();
+        if (frame.count == 0 && !running) scheduler.remove(this); // faded out
+    }
 
-        public void reInit() {
-            // Position
-            x = RND.nextDouble() * getWidth();
-            y = getHeight() + HALF_HEIGHT;
+    // One drawImage() per particle and one setGlobalAlpha() per alpha bucket, or a single drawImage() of the
+    // composited pixels in cpu mode. Only the bounds of the particles are cleared and drawn.
+    private void render() { batch.render(ctx, region, width, height, CPU); }
 
-            // Size
-            size = (RND.nextDouble() * 1) + 0.5;
 
-            // Velocity
-            vX = (RND.nextDouble() * 0.5) - 0.25;
-            vY = -(RND.nextDouble() * 3);
+    // ******************** InnerClasses **************************************
+    // Snapshot of one simulation step
+    private static class Frame {
+        public final double[] x;
+        public final double[] y;
+        public final double[] vX;
+        public final double[] vY;
+        public final double[] size;
+        public final double[] opacity;
+        public       int      count;
+        public       long     time;
 
-            // Opacity
-            opacity = 1.0;
 
-            // Life
-            life          = (RND.nextDouble() * 20) + 40;
-            remainingLife = life;
+        // ******************** Constructor ***********************************
+        public Frame(final int CAPACITY) {
+            x       = new double[CAPACITY];
+            y       = new double[CAPACITY];
+            vX      = new double[CAPACITY];
+            vY      = new double[CAPACITY];
+            size    = new double[CAPACITY];
+            opacity = new double[CAPACITY];
         }
     }
 }